@@ -0,0 +1,322 @@
+package gui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Every customer the shop has seen, for name suggestions at login and for
+ * reordering what they had last time.
+ *
+ * Names are kept lower-cased in one sorted array, so the names starting
+ * with a prefix are a binary search and a short scan. The array is
+ * replaced, not changed, when a new customer appears, which is rare next to
+ * lookups. Each customer's last confirmed order is held as two longs per
+ * line (catalog ids and quantity; topping mask) and priced again from the
+ * catalog when it is reordered; pizzas and toppings the catalog no longer
+ * has are left out and listed separately, so a reorder can say what is
+ * missing and does not charge for it. The index is saved
+ * to {@code syzygy.customerIndex} (default {@code ~/.syzygy/customers.dat})
+ * a few seconds after it changes.
+ */
+final class CustomerIndex implements OrderEventBus.Handler {
+
+    static final Path DEFAULT_FILE = Paths.get(System.getProperty("syzygy.customerIndex",
+            System.getProperty("user.home") + "/.syzygy/customers.dat"));
+
+    private static final int MAGIC = 0x53595a03;
+    private static final short VERSION = 2;
+    private static final long[] NO_ORDER = new long[0];
+
+    private static CustomerIndex shared;
+
+    static synchronized CustomerIndex shared() {
+        if (shared == null) {
+            shared = new CustomerIndex(DEFAULT_FILE);
+            try {
+                shared.load();
+            } catch (IOException e) {
+                Log.error("Could not load the customer index %s", DEFAULT_FILE.toString(), e);
+            }
+            shared.start();
+            OrderEventBus.shared().subscribeGating("customers", shared);
+        }
+        return shared;
+    }
+
+    private final Path file;
+    private final ConcurrentHashMap<String, Entry> customers = new ConcurrentHashMap<>();
+    private volatile String[] sortedKeys = new String[0];
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "customer-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    CustomerIndex(Path file) {
+        this.file = file;
+    }
+
+    void start() {
+        saver.scheduleWithFixedDelay(this::saveQuietly, 5, 5, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveQuietly, "customer-index-shutdown"));
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() == OrderEvent.Type.ORDER_CONFIRMED && event.getOrder() != null) {
+            record(event.getOrder());
+        }
+    }
+
+    int size() {
+        return sortedKeys.length;
+    }
+
+    /**
+     * Adds a customer if they are new.
+     *
+     * @return the name as first seen
+     */
+    String add(String name) {
+        return customer(name).name;
+    }
+
+    private Entry customer(String name) {
+        String key = key(name);
+        Entry existing = customers.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (this) {
+            existing = customers.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            Entry created = new Entry(name.trim());
+            String[] keys = sortedKeys;
+            int at = -Arrays.binarySearch(keys, key) - 1;
+            String[] grown = new String[keys.length + 1];
+            System.arraycopy(keys, 0, grown, 0, at);
+            grown[at] = key;
+            System.arraycopy(keys, at, grown, at + 1, keys.length - at);
+            // Publish the customer before the key that leads to it
+            customers.put(key, created);
+            sortedKeys = grown;
+            dirty.set(true);
+            return created;
+        }
+    }
+
+    /**
+     * Up to {@code limit} known names starting with {@code prefix}, ignoring
+     * case, in alphabetical order.
+     */
+    List<String> suggest(String prefix, int limit) {
+        String key = key(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String[] keys = sortedKeys;
+        int from = Arrays.binarySearch(keys, key);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        List<String> names = new ArrayList<>(Math.min(limit, 16));
+        for (int i = from; i < keys.length && names.size() < limit && keys[i].startsWith(key); i++) {
+            names.add(customers.get(keys[i]).name);
+        }
+        return names;
+    }
+
+    /**
+     * Remembers {@code order} as its customer's last.
+     */
+    void record(Order order) {
+        if (order.getCustomerName() == null || order.getCustomerName().trim().isEmpty()) {
+            return;
+        }
+        Entry customer = customer(order.getCustomerName());
+        List<String> leftOut = new ArrayList<>();
+        customer.lastOrder = encode(order.getLines(), leftOut);
+        customer.leftOut = leftOut.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(leftOut);
+        customer.lastOrderAt = System.currentTimeMillis();
+        dirty.set(true);
+    }
+
+    /**
+     * The customer's last confirmed order, or an empty list.
+     */
+    List<OrderLine> lastOrder(String name) {
+        Entry customer = customers.get(key(name));
+        return customer == null ? Collections.emptyList() : decode(customer.lastOrder);
+    }
+
+    /**
+     * What {@link #lastOrder} could not keep of the customer's last order,
+     * one line per pizza or topping, e.g. "2 x Large Hawaiian Pizza".
+     */
+    List<String> leftOutOfLastOrder(String name) {
+        Entry customer = customers.get(key(name));
+        return customer == null ? Collections.emptyList() : customer.leftOut;
+    }
+
+    long lastOrderAt(String name) {
+        Entry customer = customers.get(key(name));
+        return customer == null ? 0 : customer.lastOrderAt;
+    }
+
+    // Per line: type, size and quantity; then the topping mask. What the catalog lacks goes to leftOut
+    static long[] encode(List<OrderLine> lines, List<String> leftOut) {
+        long[] packed = new long[lines.size() * 2];
+        int n = 0;
+        for (OrderLine line : lines) {
+            int type = PizzaCatalog.typeId(line.getType());
+            int size = PizzaCatalog.sizeId(line.getSize());
+            if (type < 0 || size < 0) {
+                leftOut.add(line.getQuantity() + " x " + line.getSize() + " " + line.getType());
+                continue;
+            }
+            packed[n++] = type | (long) size << 8 | (long) (line.getQuantity() & 0xffff) << 16;
+            packed[n++] = PizzaCatalog.toppingMask(line.getToppings());
+            for (String topping : line.getToppings()) {
+                if (PizzaCatalog.toppingId(topping) < 0) {
+                    leftOut.add(topping + " on " + line.getQuantity() + " x " + line.getType());
+                }
+            }
+        }
+        return n == packed.length ? packed : Arrays.copyOf(packed, n);
+    }
+
+    // Priced at today's catalog price for the toppings still on it; files from before also hold the old price above bit 32
+    static List<OrderLine> decode(long[] packed) {
+        List<OrderLine> lines = new ArrayList<>(packed.length / 2);
+        for (int i = 0; i + 1 < packed.length; i += 2) {
+            long word = packed[i];
+            List<String> toppings = new ArrayList<>();
+            for (long mask = packed[i + 1]; mask != 0; mask &= mask - 1) {
+                toppings.add(PizzaCatalog.topping(Long.numberOfTrailingZeros(mask)));
+            }
+            lines.add(new OrderLine(PizzaCatalog.type((int) (word & 0xff)), PizzaCatalog.size((int) (word >>> 8 & 0xff)),
+                    toppings, (int) (word >>> 16 & 0xffff), PizzaCatalog.unitPrice(toppings.size())));
+        }
+        return lines;
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            Log.error("Could not save the customer index", e);
+        }
+    }
+
+    void save() throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        String[] keys = sortedKeys;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                Entry customer = customers.get(key);
+                long[] lastOrder = customer.lastOrder;
+                out.writeUTF(customer.name);
+                out.writeLong(customer.lastOrderAt);
+                out.writeShort(lastOrder.length);
+                for (long word : lastOrder) {
+                    out.writeLong(word);
+                }
+                List<String> leftOut = customer.leftOut;
+                out.writeShort(leftOut.size());
+                for (String item : leftOut) {
+                    out.writeUTF(item);
+                }
+            }
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a customer index: " + file);
+            }
+            // Version 1 had no left-out lines
+            short version = in.readShort();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported customer index version " + version + ": " + file);
+            }
+            int count = in.readInt();
+            String[] keys = new String[count];
+            for (int i = 0; i < count; i++) {
+                Entry customer = new Entry(in.readUTF());
+                customer.lastOrderAt = in.readLong();
+                long[] lastOrder = new long[in.readShort() & 0xffff];
+                for (int w = 0; w < lastOrder.length; w++) {
+                    lastOrder[w] = in.readLong();
+                }
+                customer.lastOrder = lastOrder;
+                if (version >= 2) {
+                    List<String> leftOut = new ArrayList<>();
+                    for (int l = in.readShort() & 0xffff; l > 0; l--) {
+                        leftOut.add(in.readUTF());
+                    }
+                    customer.leftOut = leftOut.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(leftOut);
+                }
+                keys[i] = key(customer.name);
+                customers.put(keys[i], customer);
+            }
+            Arrays.sort(keys);
+            sortedKeys = keys;
+        } catch (NoSuchFileException e) {
+            // First run
+        }
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Entry {
+
+        final String name;
+        volatile long[] lastOrder = NO_ORDER;
+        volatile List<String> leftOut = Collections.emptyList();
+        volatile long lastOrderAt;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -4,10 +4,10 @@ package gui;
  *
  * @author dilanka
  */
+import java.awt.GraphicsEnvironment;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import javax.swing.JOptionPane;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Builder Pattern
 class Pizza {
@@ -48,8 +48,8 @@ class Pizza {
     public void display() {
         double toppingsPrice = toppings.size() * 50;
         totalPrice = basePrice + toppingsPrice;
-        System.out.println("Pizza: " + type + ", \nSize: " + size + ", \nToppings: "
-                + String.join(", ", toppings) + " \nPrice of One : Rs " + totalPrice);
+        OrderEventBus.shared().publish(OrderEvent.Type.ITEM_PRICED, 0, OrderEvent.toCents(totalPrice), type);
+        Log.info("Pizza: %s, Size: %s, Toppings: %d, Price of One: Rs %m", type, size, toppings.size(), OrderEvent.toCents(totalPrice));
     }
 
     static class Builder {
@@ -90,14 +90,16 @@ class IngredientFactory {
 
     private IngredientFactory() {}
     
-    private static final HashMap<String, IngredientFactory> ingredientsPOOL = new HashMap<>();
+    private static final ConcurrentHashMap<String, IngredientFactory> ingredientsPOOL = new ConcurrentHashMap<>();
 
     public static IngredientFactory createIngredient(String ingredient) {
         IngredientFactory instance = ingredientsPOOL.get(ingredient);
         if (instance == null) {
-            instance = new IngredientFactory();
-            instance.ingredient = ingredient;
-            ingredientsPOOL.put(ingredient, instance);
+            instance = ingredientsPOOL.computeIfAbsent(ingredient, name -> {
+                IngredientFactory created = new IngredientFactory();
+                created.ingredient = name;
+                return created;
+            });
         }
         return instance;
     }
@@ -173,9 +175,18 @@ class OrderMediator {
         this.customer = customer;
     }
 
-    public void findOrder() {
-        Shop.showNotification("Syzygy App : Finding and Forwarding the Pizza Order...");
-        orderManager.orderConfirmation();
+    public void findOrder(Order order) {
+        FindOrderEvent event = new FindOrderEvent();
+        event.begin();
+        OrderEventBus.shared().publish(OrderEvent.Type.ORDER_FORWARDED, order);
+        try {
+            event.approved = orderManager.orderConfirmation(order);
+        } finally {
+            if (event.shouldCommit()) {
+                event.describe(order);
+                event.commit();
+            }
+        }
     }
 }
 
@@ -188,33 +199,89 @@ abstract class User {
     }
 }
 
+// Decides whether a forwarded order goes to the kitchen
+interface OrderApproval {
+
+    OrderApproval AUTOMATIC = order -> true;
+
+    boolean approve(Order order);
+}
+
 class OrderManager extends User {
 
-    public void orderConfirmation() {
-        int option = JOptionPane.showConfirmDialog(null, "Order Manager : Can you confirm this Pizza Order?\n\n"
-                + Shop.allOrderList, "Confirmation", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
-        if (option == JOptionPane.YES_OPTION) {
-            Status status = new Status();
-            status.setStepStates("Order Confirmed");
-            OrderStep acceptingStep = new AcceptingStep();
-            OrderStep cookingStep = new CookingStep();
-            OrderStep packingStep = new PackingStep();
-            OrderStep handoverStep = new HandoverStep();
-            acceptingStep.setNextStep(cookingStep);
-            cookingStep.setNextStep(packingStep);
-            packingStep.setNextStep(handoverStep);
-            acceptingStep.processStep(status);
-        } else {
-            JOptionPane.showMessageDialog(null, "OK !  Add a new Pizza Order.", "Information", JOptionPane.INFORMATION_MESSAGE);
+    private OrderApproval approval = GraphicsEnvironment.isHeadless() ? OrderApproval.AUTOMATIC : new SwingOrderApproval();
+
+    public void setApproval(OrderApproval approval) {
+        this.approval = approval;
+    }
+
+    /**
+     * @return whether the order was approved and made it through the kitchen
+     */
+    public boolean orderConfirmation(Order order) {
+        OrderEventBus bus = OrderEventBus.shared();
+        if (approval.approve(order)) {
+            Status status = new Status(OrderStateTable.shared().register());
+            order.setOrderId(status.getOrderId());
+            Inventory.shared().consume(order);
+            bus.publish(OrderEvent.Type.ORDER_CONFIRMED, order);
+            order.setPredictedReadyAt(EtaEstimator.shared().track(order));
+            bus.publish(OrderEvent.Type.ORDER_ETA, status.getOrderId(), order.getPredictedReadyAt(), null);
+            // A step that fails the order (OrderStep.failed) or throws cancels it; the customer is not charged
+            boolean made;
+            try {
+                made = OrderWorkflow.shared().run(status);
+            } catch (RuntimeException e) {
+                PaymentStage.shared().reverse(order);
+                throw e;
+            }
+            if (!made) {
+                PaymentStage.shared().reverse(order);
+            }
+            return made;
         }
+        Inventory.shared().release(order);
+        PaymentStage.shared().reverse(order);
+        bus.publish(OrderEvent.Type.ORDER_DECLINED, order);
+        return false;
     }
 }
 
 class Customer extends User {
 
-    public void sendOrder() {
-        Shop.showNotification(Shop.username + " : Sending the Pizza Order...");
-        orderMediator.findOrder();
+    private final String name;
+
+    public Customer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AdmissionDecision sendOrder(Order order) {
+        OrderEventBus bus = OrderEventBus.shared();
+        OrderAdmission admission = OrderAdmission.shared();
+        AdmissionDecision decision = admission.admit();
+        switch (decision.getOutcome()) {
+            case ACCEPT:
+                order.setQuotedWaitMillis(decision.getQuotedWaitMillis());
+                bus.publish(OrderEvent.Type.ORDER_ADMITTED, 0, decision.getQuotedWaitMillis(), name);
+                bus.publish(OrderEvent.Type.ORDER_SENT, order);
+                try {
+                    orderMediator.findOrder(order);
+                } finally {
+                    admission.finished();
+                }
+                break;
+            case DEFER:
+                bus.publish(OrderEvent.Type.ORDER_DEFERRED, 0, decision.getRetryAfterMillis(), name);
+                break;
+            default:
+                bus.publish(OrderEvent.Type.ORDER_REJECTED, 0, decision.getQuotedWaitMillis(), name);
+                break;
+        }
+        return decision;
     }
 }
 
@@ -222,78 +289,224 @@ class Customer extends User {
 abstract class OrderStep {
 
     protected OrderStep nextStep;
+    private OrderStepEvent event;
+    private boolean failed;
 
     public void setNextStep(OrderStep nextStep) {
         this.nextStep = nextStep;
     }
 
     public abstract void processStep(Status status);
+
+    /**
+     * Whether this step moves the order through OrderState. Steps that do
+     * may not run in parallel with each other.
+     */
+    public boolean movesOrderState() {
+        return true;
+    }
+
+    /**
+     * The state this step moves the order to, or null if it does not say.
+     */
+    public OrderState reaches() {
+        return null;
+    }
+
+    /**
+     * Whether the last processStep failed the order.
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    // Hands over to the next step, if this one is chained
+    protected void proceed(Status status) {
+        if (nextStep != null) {
+            nextStep.processStep(status);
+        }
+    }
+
+    // Starts timing this step; completed or failed ends it
+    protected void entered() {
+        event = new OrderStepEvent();
+        event.begin();
+    }
+
+    protected void completed(Status status, String reachedState) {
+        status.setStepStates(reachedState);
+        OrderEventBus.shared().publish(OrderEvent.Type.STEP_COMPLETED, status.getOrderId(), OrderState.fromLabel(reachedState).ordinal(), null);
+        left(status, reachedState);
+    }
+
+    protected void failed(Status status) {
+        failed = true;
+        status.fail();
+        left(status, "Failed");
+    }
+
+    // Ends a step that did its work without moving the order's state
+    protected void done(Status status, String what) {
+        left(status, what);
+    }
+
+    private void left(Status status, String reached) {
+        if (event != null && event.shouldCommit()) {
+            event.orderId = status.getOrderId();
+            event.step = getClass().getSimpleName();
+            event.reached = reached;
+            event.commit();
+        }
+        event = null;
+    }
 }
 
 class AcceptingStep extends OrderStep {
 
+    @Override
+    public OrderState reaches() {
+        return OrderState.ACCEPTED;
+    }
+
     @Override
     public void processStep(Status status) {
+        entered();
         if (status.getStepStates().equals("Order Confirmed")) {
-            Shop.showNotification("Your Pizza Order is accepted!");
-            status.setStepStates("Order Accepted");
-            this.nextStep.processStep(status);
+            completed(status, "Order Accepted");
+            proceed(status);
         } else {
-            JOptionPane.showMessageDialog(null, "Order Error...", "Warning", JOptionPane.WARNING_MESSAGE);
+            failed(status);
         }
     }
 }
 
 class CookingStep extends OrderStep {
 
+    @Override
+    public OrderState reaches() {
+        return OrderState.COOKED;
+    }
+
     @Override
     public void processStep(Status status) {
+        entered();
         if (status.getStepStates().equals("Order Accepted")) {
-            Shop.showNotification("Your Pizza is being cooked.");
-            status.setStepStates("Finished cooking");
-            this.nextStep.processStep(status);
+            completed(status, "Finished cooking");
+            proceed(status);
         } else {
-            JOptionPane.showMessageDialog(null, "Order Error...", "Warning", JOptionPane.WARNING_MESSAGE);
+            failed(status);
         }
     }
 }
 
 class PackingStep extends OrderStep {
 
+    @Override
+    public OrderState reaches() {
+        return OrderState.PACKED;
+    }
+
     @Override
     public void processStep(Status status) {
+        entered();
         if (status.getStepStates().equals("Finished cooking")) {
-            Shop.showNotification("Your Pizza is being packed.");
-            status.setStepStates("Finished packing");
-            this.nextStep.processStep(status);
+            completed(status, "Finished packing");
+            proceed(status);
         } else {
-            JOptionPane.showMessageDialog(null, "Order Error...", "Warning", JOptionPane.WARNING_MESSAGE);
+            failed(status);
         }
     }
 }
 
 class HandoverStep extends OrderStep {
 
+    @Override
+    public OrderState reaches() {
+        return OrderState.HANDED_OVER;
+    }
+
     @Override
     public void processStep(Status status) {
+        entered();
         if (status.getStepStates().equals("Finished packing")) {
-            Shop.showNotification("Your Pizza Order is handed over to the driver for delivery.");
-            JOptionPane.showMessageDialog(null, "Your Pizza Order is successful!\nGet it and Enjoy!", "Information", JOptionPane.INFORMATION_MESSAGE);
+            completed(status, "Handed over");
+            OrderEventBus.shared().publish(OrderEvent.Type.ORDER_COMPLETED, status.getOrderId());
         } else {
-            JOptionPane.showMessageDialog(null, "Order Error...", "Warning", JOptionPane.WARNING_MESSAGE);
+            failed(status);
         }
     }
 }
 
+// Side work (sides, drinks) done alongside the pizza, e.g. while it cooks
+class PrepStep extends OrderStep {
+
+    private final String what;
+
+    public PrepStep(String what) {
+        this.what = what;
+    }
+
+    @Override
+    public boolean movesOrderState() {
+        return false;
+    }
+
+    @Override
+    public void processStep(Status status) {
+        entered();
+        done(status, what + " ready");
+        proceed(status);
+    }
+}
+
+// State lives in the shared OrderStateTable; Status is this order's view of it
 class Status {
 
-    private String stepStates;
+    private final OrderStateTable table;
+    private final int orderId;
+    private OrderState observed;
+
+    public Status(int orderId) {
+        this(OrderStateTable.shared(), orderId);
+    }
+
+    Status(OrderStateTable table, int orderId) {
+        this.table = table;
+        this.orderId = orderId;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
 
     public String getStepStates() {
-        return stepStates;
+        observed = table.stateOf(orderId);
+        return observed.getLabel();
     }
 
     public void setStepStates(String stepStates) {
-        this.stepStates = stepStates;
+        OrderState expected = observed != null ? observed : table.stateOf(orderId);
+        OrderState next = OrderState.fromLabel(stepStates);
+        if (!table.transition(orderId, expected, next)) {
+            throw new IllegalStateException("Order " + orderId + " is no longer in state " + expected.getLabel());
+        }
+        observed = next;
+    }
+
+    /**
+     * Cancels the order from whatever state it is in, so its slot is freed
+     * and it stops counting as in flight.
+     *
+     * @return false if it had already finished or been cancelled
+     */
+    boolean fail() {
+        for (OrderState state = table.stateOf(orderId); !state.isReclaimable(); state = table.stateOf(orderId)) {
+            if (table.transition(orderId, state, OrderState.CANCELLED)) {
+                observed = OrderState.CANCELLED;
+                OrderEventBus.shared().publish(OrderEvent.Type.ORDER_FAILED, orderId, 0L, state.getLabel());
+                return true;
+            }
+        }
+        return false;
     }
 }
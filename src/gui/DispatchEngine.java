@@ -0,0 +1,310 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Groups handed-over orders into multi-drop delivery runs and puts each run
+ * on the best available driver.
+ *
+ * Ready orders wait in a priority queue ordered by delivery deadline. On
+ * every tick each zone's most urgent order, most urgent zone first, is
+ * dispatched together with up to {@code maxDrops - 1} other ready orders for
+ * the same zone, once either the run is full, the order has waited out the
+ * batching window, or its deadline is close. A zone still filling its run
+ * does not hold up a full one elsewhere. All queue and fleet state is owned
+ * by the single dispatch thread; the bus thread only drops orders into an
+ * inbox.
+ */
+final class DispatchEngine implements OrderEventBus.Handler {
+
+    static final int ZONES = 6;
+
+    private static DispatchEngine shared;
+
+    /**
+     * The engine fed by the shared OrderEventBus, delivering with a small
+     * simulated fleet until real drivers are wired in.
+     */
+    static synchronized DispatchEngine shared() {
+        if (shared == null) {
+            shared = new DispatchEngine(new SimulatedFleet(4, TimeUnit.SECONDS.toMillis(90), TimeUnit.SECONDS.toMillis(30)),
+                    4, TimeUnit.SECONDS.toMillis(60), TimeUnit.MINUTES.toMillis(30));
+            OrderEventBus.shared().subscribeGating("dispatch", shared);
+            shared.start(500, TimeUnit.MILLISECONDS);
+        }
+        return shared;
+    }
+
+    /**
+     * Orders have no delivery address yet, so the zone is derived from the
+     * customer until one is captured.
+     */
+    static int zoneOf(String customerName) {
+        return customerName == null ? 0 : Math.floorMod(customerName.hashCode(), ZONES);
+    }
+
+    private final DriverFleet fleet;
+    private final int maxDrops;
+    private final long batchWindowMillis;
+    private final long maxLatencyMillis;
+    private final Map<Integer, Integer> zonesByOrder = new ConcurrentHashMap<>();
+    private final Queue<ReadyOrder> inbox = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ReadyOrder> ready = new PriorityQueue<>((a, b) -> Long.compare(a.deadline, b.deadline));
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private volatile long worstWaitMillis;
+
+    DispatchEngine(DriverFleet fleet, int maxDrops, long batchWindowMillis, long maxLatencyMillis) {
+        this.fleet = fleet;
+        this.maxDrops = maxDrops;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    void start(long tick, TimeUnit unit) {
+        dispatcher.scheduleWithFixedDelay(this::dispatchSafely, tick, tick, unit);
+    }
+
+    void stop() {
+        dispatcher.shutdownNow();
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case ORDER_CONFIRMED:
+                zonesByOrder.put(event.getOrderId(), zoneOf(event.getText()));
+                break;
+            case ORDER_COMPLETED:
+                Integer zone = zonesByOrder.remove(event.getOrderId());
+                ready(event.getOrderId(), zone == null ? 0 : zone, System.currentTimeMillis());
+                break;
+            case ORDER_FAILED:
+            case ORDER_DECLINED:
+                // Never coming out of the kitchen
+                zonesByOrder.remove(event.getOrderId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Queues an order that has been packed and is waiting for a driver.
+     */
+    void ready(int orderId, int zone, long readyAtMillis) {
+        inbox.add(new ReadyOrder(orderId, zone, readyAtMillis, readyAtMillis + maxLatencyMillis));
+    }
+
+    long trips() {
+        return trips.sum();
+    }
+
+    long delivered() {
+        return delivered.sum();
+    }
+
+    double ordersPerTrip() {
+        long t = trips.sum();
+        return t == 0 ? 0.0 : (double) delivered.sum() / t;
+    }
+
+    long worstWaitMillis() {
+        return worstWaitMillis;
+    }
+
+    private void dispatchSafely() {
+        try {
+            dispatch(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            Log.error("Dispatch failed", e);
+        }
+    }
+
+    // Dispatch thread only
+    void dispatch(long now) {
+        for (ReadyOrder order; (order = inbox.poll()) != null;) {
+            ready.add(order);
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+        // Each zone's orders by deadline, zones in the order of their most urgent one
+        List<ReadyOrder> byDeadline = new ArrayList<>(ready);
+        byDeadline.sort(ready.comparator());
+        Map<Integer, List<ReadyOrder>> byZone = new LinkedHashMap<>();
+        for (ReadyOrder order : byDeadline) {
+            byZone.computeIfAbsent(order.zone, zone -> new ArrayList<>()).add(order);
+        }
+        for (List<ReadyOrder> waiting : byZone.values()) {
+            while (!waiting.isEmpty()) {
+                ReadyOrder head = waiting.get(0);
+                List<ReadyOrder> run = collectRun(head, waiting);
+                boolean full = run.size() >= maxDrops;
+                boolean waitedOut = now - head.readyAt >= batchWindowMillis;
+                boolean urgent = head.deadline - now <= fleet.estimatedTripMillis(head.zone, run.size()) + batchWindowMillis;
+                if (!full && !waitedOut && !urgent) {
+                    break;
+                }
+                Driver driver = bestDriver(head.zone, now);
+                if (driver == null) {
+                    return;
+                }
+                waiting.removeAll(run);
+                for (ReadyOrder order : run) {
+                    ready.remove(order);
+                    worstWaitMillis = Math.max(worstWaitMillis, now - order.readyAt);
+                    OrderEventBus.shared().publish(OrderEvent.Type.ORDER_DISPATCHED, order.orderId, run.size(), driver.getName());
+                }
+                trips.increment();
+                delivered.add(run.size());
+                fleet.assign(driver, head.zone, run.size(), () -> dispatcher.execute(this::dispatchSafely));
+            }
+        }
+    }
+
+    // The head and the zone's next most urgent orders that became ready within the window of it
+    private List<ReadyOrder> collectRun(ReadyOrder head, List<ReadyOrder> zoneOrders) {
+        List<ReadyOrder> run = new ArrayList<>(maxDrops);
+        run.add(head);
+        for (Iterator<ReadyOrder> candidates = zoneOrders.iterator(); candidates.hasNext() && run.size() < maxDrops;) {
+            ReadyOrder candidate = candidates.next();
+            if (candidate != head && Math.abs(candidate.readyAt - head.readyAt) <= batchWindowMillis) {
+                run.add(candidate);
+            }
+        }
+        return run;
+    }
+
+    // Lowest score wins: prefer drivers already near the zone, then the one idle longest
+    private Driver bestDriver(int zone, long now) {
+        Driver best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Driver driver : fleet.available()) {
+            double score = Math.abs(driver.getZone() - zone) * 10.0 - (now - driver.getIdleSince()) / 60000.0;
+            if (score < bestScore) {
+                bestScore = score;
+                best = driver;
+            }
+        }
+        return best;
+    }
+
+    private static final class ReadyOrder {
+
+        final int orderId;
+        final int zone;
+        final long readyAt;
+        final long deadline;
+
+        ReadyOrder(int orderId, int zone, long readyAt, long deadline) {
+            this.orderId = orderId;
+            this.zone = zone;
+            this.readyAt = readyAt;
+            this.deadline = deadline;
+        }
+    }
+}
+
+class Driver {
+
+    private final String name;
+    private volatile int zone;
+    private volatile long idleSince = System.currentTimeMillis();
+
+    public Driver(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getZone() {
+        return zone;
+    }
+
+    public long getIdleSince() {
+        return idleSince;
+    }
+
+    void returned(int zone, long at) {
+        this.zone = zone;
+        this.idleSince = at;
+    }
+}
+
+interface DriverFleet {
+
+    List<Driver> available();
+
+    long estimatedTripMillis(int zone, int drops);
+
+    /**
+     * Sends {@code driver} on a run; {@code onReturn} is called once the
+     * driver is available again.
+     */
+    void assign(Driver driver, int zone, int drops, Runnable onReturn);
+}
+
+// Local fleet for testing: trips take a fixed time per zone hop and per drop
+class SimulatedFleet implements DriverFleet {
+
+    private final List<Driver> idle = new ArrayList<>();
+    private final long baseTripMillis;
+    private final long perDropMillis;
+    private final ScheduledExecutorService road = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "simulated-fleet");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SimulatedFleet(int drivers, long baseTripMillis, long perDropMillis) {
+        for (int i = 1; i <= drivers; i++) {
+            idle.add(new Driver("Driver " + i));
+        }
+        this.baseTripMillis = baseTripMillis;
+        this.perDropMillis = perDropMillis;
+    }
+
+    @Override
+    public synchronized List<Driver> available() {
+        return new ArrayList<>(idle);
+    }
+
+    @Override
+    public long estimatedTripMillis(int zone, int drops) {
+        return baseTripMillis + zone * perDropMillis + drops * perDropMillis;
+    }
+
+    @Override
+    public void assign(Driver driver, int zone, int drops, Runnable onReturn) {
+        synchronized (this) {
+            idle.remove(driver);
+        }
+        road.schedule(() -> {
+            driver.returned(zone, System.currentTimeMillis());
+            synchronized (SimulatedFleet.this) {
+                idle.add(driver);
+            }
+            onReturn.run();
+        }, estimatedTripMillis(zone, drops), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,247 @@
+package gui;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times every event dispatched on the Swing EDT.
+ *
+ * Pushed in front of the system event queue. A handler that keeps the EDT
+ * busy past the threshold ({@code syzygy.edt.stallMillis}, default 100) has
+ * the EDT stack captured by the watchdog thread while it is still stuck, and
+ * is kept in a small ring of recent stalls. Time spent in nested dispatch
+ * and idle inside a modal dialog's own loop is not charged to the event that
+ * opened the dialog.
+ */
+final class EdtWatchdog extends EventQueue {
+
+    private static final int RING = 64;
+    private static final int MAX_DEPTH = 32;
+    // Dispatch time buckets in ms: <1, <2, <4, ... <1024, 1024+
+    private static final int BUCKETS = 12;
+
+    private static EdtWatchdog installed;
+
+    /**
+     * Starts watching the EDT, once per JVM.
+     */
+    static synchronized EdtWatchdog install() {
+        if (installed == null) {
+            installed = new EdtWatchdog(TimeUnit.MILLISECONDS.toNanos(Long.getLong("syzygy.edt.stallMillis", 100)));
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+            installed.start();
+        }
+        return installed;
+    }
+
+    static synchronized EdtWatchdog installed() {
+        return installed;
+    }
+
+    private final long thresholdNanos;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final Stall[] ring = new Stall[RING];
+    private volatile long stalls;
+    private volatile long events;
+    private volatile long worstNanos;
+
+    // EDT only
+    private int depth;
+    private final long[] startedAt = new long[MAX_DEPTH];
+    private final long[] excluded = new long[MAX_DEPTH];
+
+    // Shared with the watchdog thread: the segment the EDT is running now
+    private volatile Thread edt;
+    private volatile long busySince;
+    private volatile long segment;
+    private volatile long capturedSegment = -1;
+    private volatile StackTraceElement[] captured;
+
+    EdtWatchdog(long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    private void start() {
+        Thread watchdog = new Thread(this::watch, "edt-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        if (depth == MAX_DEPTH) {
+            super.dispatchEvent(event);
+            return;
+        }
+        edt = Thread.currentThread();
+        int d = depth++;
+        long start = System.nanoTime();
+        startedAt[d] = start;
+        excluded[d] = 0;
+        enterSegment(start);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            depth = d;
+            long elapsed = end - start;
+            record(event, elapsed - excluded[d]);
+            if (d > 0) {
+                excluded[d - 1] += elapsed;
+                enterSegment(end);
+            } else {
+                busySince = 0;
+            }
+        }
+    }
+
+    // A modal dialog pumps events through here; the wait is idle time
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        if (depth == 0) {
+            return super.getNextEvent();
+        }
+        busySince = 0;
+        long idleFrom = System.nanoTime();
+        try {
+            return super.getNextEvent();
+        } finally {
+            long now = System.nanoTime();
+            excluded[depth - 1] += now - idleFrom;
+            enterSegment(now);
+        }
+    }
+
+    private void enterSegment(long now) {
+        segment++;
+        busySince = now;
+    }
+
+    private void record(AWTEvent event, long busyNanos) {
+        events++;
+        long millis = TimeUnit.NANOSECONDS.toMillis(busyNanos);
+        int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        histogram.incrementAndGet(bucket);
+        if (busyNanos > worstNanos) {
+            worstNanos = busyNanos;
+        }
+        if (busyNanos >= thresholdNanos) {
+            StackTraceElement[] stack = captured;
+            captured = null;
+            ring[(int) (stalls % RING)] = new Stall(System.currentTimeMillis(), busyNanos, describe(event), stack);
+            stalls++;
+        }
+    }
+
+    private void watch() {
+        long interval = Math.max(1, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 2);
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long since = busySince;
+            long current = segment;
+            Thread thread = edt;
+            if (since != 0 && thread != null && current != capturedSegment && System.nanoTime() - since >= thresholdNanos) {
+                captured = thread.getStackTrace();
+                capturedSegment = current;
+            }
+        }
+    }
+
+    private static String describe(AWTEvent event) {
+        String name = event.getClass().getSimpleName();
+        Object source = event.getSource();
+        return source == null ? name : name + " on " + source.getClass().getSimpleName();
+    }
+
+    long eventCount() {
+        return events;
+    }
+
+    long stallCount() {
+        return stalls;
+    }
+
+    long worstMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(worstNanos);
+    }
+
+    /**
+     * Dispatches per bucket; bucket {@code i} counts events that took less
+     * than {@code 2^i} ms, the last one everything slower.
+     */
+    long[] histogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * The most recent stalls, newest first.
+     */
+    Stall[] recentStalls() {
+        long total = stalls;
+        int n = (int) Math.min(total, RING);
+        Stall[] recent = new Stall[n];
+        for (int i = 0; i < n; i++) {
+            recent[i] = ring[(int) ((total - 1 - i) % RING)];
+        }
+        return recent;
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Events: %d, Stalls: %d, Worst: %d ms, Threshold: %d ms%n",
+                events, stalls, worstMillis(), TimeUnit.NANOSECONDS.toMillis(thresholdNanos)));
+        report.append("\nDispatch time\n");
+        long[] counts = histogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                String range = i == BUCKETS - 1 ? (1L << (i - 1)) + "+ ms" : "< " + (1L << i) + " ms";
+                report.append(String.format("%-10s %d%n", range, counts[i]));
+            }
+        }
+        report.append("\nRecent stalls\n");
+        for (Stall stall : recentStalls()) {
+            report.append(stall).append('\n');
+        }
+        return report.toString();
+    }
+
+    static final class Stall {
+
+        private static final int FRAMES = 12;
+
+        final long atMillis;
+        final long busyNanos;
+        final String event;
+        final StackTraceElement[] stack;
+
+        Stall(long atMillis, long busyNanos, String event, StackTraceElement[] stack) {
+            this.atMillis = atMillis;
+            this.busyNanos = busyNanos;
+            this.event = event;
+            this.stack = stack;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format("%tT %d ms %s",
+                    atMillis, TimeUnit.NANOSECONDS.toMillis(busyNanos), event));
+            if (stack != null) {
+                for (int i = 0; i < Math.min(FRAMES, stack.length); i++) {
+                    text.append("\n    at ").append(stack[i]);
+                }
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package gui;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Predicts when each order will be handed over.
+ *
+ * Every stage transition feeds an exponentially decayed mean of how long
+ * that stage took, per pizza size. A prediction is the rest of the current
+ * stage plus the mean of each later stage, with the wait for orders ahead
+ * in the queue spread over the stage's capacity (ovens, staff). Predictions
+ * for all in-flight orders are refreshed once a second into a flat array
+ * indexed like the OrderStateTable.
+ *
+ * Only transitions that took a kitchen-like amount of time are learned
+ * from. The in-process steps move an order through every state within
+ * microseconds, and averaging those in would decay the configured stage
+ * times to nothing; until real kitchen timestamps arrive the means stay at
+ * the configured values.
+ */
+final class EtaEstimator implements OrderStateTable.Listener {
+
+    private static final double SMOOTHING = 0.2;
+    // Anything quicker was not done by a person or an oven
+    private static final long MIN_SAMPLE_MILLIS = Long.getLong("syzygy.eta.minSampleMillis", 1000L);
+
+    // Stages in pipeline order; each is timed from the previous state
+    static final OrderState[] STAGES = {OrderState.ACCEPTED, OrderState.COOKED, OrderState.PACKED, OrderState.HANDED_OVER};
+    static final long[] DEFAULT_STAGE_MILLIS = {
+        TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(12), TimeUnit.MINUTES.toMillis(2), TimeUnit.MINUTES.toMillis(3)
+    };
+    static final double[] SIZE_FACTORS = {0.8, 1.0, 1.25};
+
+    private static EtaEstimator shared;
+
+    static synchronized EtaEstimator shared() {
+        if (shared == null) {
+            shared = new EtaEstimator(OrderStateTable.shared(), new int[]{1, Integer.getInteger("syzygy.kitchen.ovens", 2), 1, 1});
+            OrderStateTable.shared().addListener(shared);
+            shared.start();
+        }
+        return shared;
+    }
+
+    private final OrderStateTable table;
+    private final int[] stageCapacity;
+    private final int sizes = PizzaCatalog.sizes().size();
+    // Mean millis per (stage, size), as double bits
+    private final AtomicLongArray means;
+    private final byte[] sizeBySlot;
+    private final AtomicLongArray readyAtBySlot;
+    private final AtomicLongArray lastTransition;
+    private final int mask;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "eta-estimator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    EtaEstimator(OrderStateTable table, int[] stageCapacity) {
+        this.table = table;
+        this.stageCapacity = stageCapacity;
+        this.mask = table.capacity() - 1;
+        this.sizeBySlot = new byte[table.capacity()];
+        this.readyAtBySlot = new AtomicLongArray(table.capacity());
+        this.lastTransition = new AtomicLongArray(table.capacity());
+        this.means = new AtomicLongArray(STAGES.length * sizes);
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            for (int size = 0; size < sizes; size++) {
+                double factor = stage == 1 ? SIZE_FACTORS[Math.min(size, SIZE_FACTORS.length - 1)] : 1.0;
+                means.set(stage * sizes + size, Double.doubleToLongBits(DEFAULT_STAGE_MILLIS[stage] * factor));
+            }
+        }
+    }
+
+    void start() {
+        refresher.scheduleAtFixedRate(this::refreshQuietly, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts tracking a just-confirmed order.
+     *
+     * @return the predicted hand-over time in epoch millis
+     */
+    long track(Order order) {
+        int size = 0;
+        for (OrderLine line : order.getLines()) {
+            size = Math.max(size, PizzaCatalog.sizeId(line.getSize()));
+        }
+        int slot = order.getOrderId() & mask;
+        sizeBySlot[slot] = (byte) size;
+        long readyAt = predict(order.getOrderId(), OrderState.CONFIRMED, 0L, queueAhead(), System.currentTimeMillis());
+        readyAtBySlot.set(slot, readyAt);
+        return readyAt;
+    }
+
+    /**
+     * The latest prediction for {@code orderId}, or 0 if none.
+     */
+    long predictedReadyAt(int orderId) {
+        return table.stateOf(orderId).isReclaimable() ? 0L : readyAtBySlot.get(orderId & mask);
+    }
+
+    double meanStageMillis(OrderState stage, String size) {
+        return Double.longBitsToDouble(means.get(stageIndex(stage) * sizes + Math.max(0, PizzaCatalog.sizeId(size))));
+    }
+
+    @Override
+    public void stateChanged(int orderId, OrderState from, OrderState to) {
+        long now = System.nanoTime();
+        long previous = lastTransition.getAndSet(orderId & mask, now);
+        int stage = stageIndex(to);
+        if (stage < 0 || from == OrderState.FREE) {
+            return;
+        }
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(now - previous);
+        if (tookMillis < MIN_SAMPLE_MILLIS) {
+            return;
+        }
+        int cell = stage * sizes + sizeBySlot[orderId & mask];
+        long current;
+        long next;
+        do {
+            current = means.get(cell);
+            double mean = Double.longBitsToDouble(current);
+            next = Double.doubleToLongBits(mean + SMOOTHING * (tookMillis - mean));
+        } while (!means.compareAndSet(cell, current, next));
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            Log.error("Could not refresh the ETAs", e);
+        }
+    }
+
+    /**
+     * Recomputes every in-flight order's prediction.
+     */
+    void refresh(long nowMillis) {
+        long[] ahead = queueAhead();
+        long nowNanos = System.nanoTime();
+        table.forEach((orderId, state, since, created) -> {
+            if (!state.isReclaimable()) {
+                long inStage = TimeUnit.NANOSECONDS.toMillis(nowNanos - since);
+                readyAtBySlot.set(orderId & mask, predict(orderId, state, inStage, ahead, nowMillis));
+            }
+        });
+    }
+
+    // Orders currently waiting to enter each stage
+    private long[] queueAhead() {
+        long[] ahead = new long[STAGES.length];
+        ahead[0] = table.count(OrderState.CONFIRMED);
+        for (int stage = 1; stage < STAGES.length; stage++) {
+            ahead[stage] = table.count(STAGES[stage - 1]);
+        }
+        return ahead;
+    }
+
+    private long predict(int orderId, OrderState state, long inStageMillis, long[] ahead, long nowMillis) {
+        int size = sizeBySlot[orderId & mask];
+        int next = state == OrderState.CONFIRMED ? 0 : stageIndex(state) + 1;
+        double remaining = 0;
+        for (int stage = next; stage < STAGES.length; stage++) {
+            double mean = Double.longBitsToDouble(means.get(stage * sizes + size));
+            if (stage == next) {
+                // Queue ahead of us shares the stage's capacity; we are one of them
+                double queued = Math.max(0, ahead[stage] - 1) * mean / stageCapacity[stage];
+                remaining += Math.max(0, queued + mean - inStageMillis);
+            } else {
+                remaining += mean;
+            }
+        }
+        return nowMillis + (long) remaining;
+    }
+
+    private static int stageIndex(OrderState state) {
+        for (int i = 0; i < STAGES.length; i++) {
+            if (STAGES[i] == state) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,367 @@
+package gui;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A till's connection to the OrderHub.
+ *
+ * Orders are pipelined: {@link #submit} returns at once and any number of
+ * orders can be waiting for their reply. A writer thread packs everything
+ * queued since its last write into one buffer, and a reader thread matches
+ * replies to requests by id.
+ *
+ * A request that fails with {@link NotSentException} never left this till
+ * and can safely go to another kitchen; any other failure means the hub may
+ * already have the order.
+ */
+final class HubClient implements AutoCloseable {
+
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("syzygy.hub.connectTimeoutMillis", 2000);
+    static final long RECONNECT_INTERVAL_MILLIS = 30_000;
+
+    private static final Submit CLOSE = new Submit(0, null);
+
+    private static HubClient shared;
+    private static long nextConnectAt;
+
+    private final SocketChannel channel;
+    private final BlockingQueue<Submit> outbox = new LinkedBlockingQueue<>();
+    private final Map<Integer, CompletableFuture<HubReply>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    // Highest request id handed to the socket; ids are written in order
+    private volatile int writtenUpTo;
+    private final Thread writer;
+    private final Thread reader;
+    private volatile boolean closed;
+
+    private HubClient(SocketChannel channel) {
+        this.channel = channel;
+        this.writer = new Thread(this::writeLoop, "hub-client-writer");
+        this.reader = new Thread(this::readLoop, "hub-client-reader");
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+    }
+
+    static HubClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        HubClient client = new HubClient(channel);
+        client.writer.start();
+        client.reader.start();
+        return client;
+    }
+
+    /**
+     * Connects to the hub named by {@code syzygy.hub} ({@code host:port}).
+     *
+     * @return the client, or null if no hub is configured or it cannot be
+     *         reached, in which case the till runs its own kitchen
+     */
+    static HubClient fromSystemProperties() {
+        String hub = System.getProperty("syzygy.hub");
+        if (hub == null || hub.isEmpty()) {
+            return null;
+        }
+        int colon = hub.lastIndexOf(':');
+        String host = colon < 0 ? hub : hub.substring(0, colon);
+        int port = colon < 0 ? OrderHub.DEFAULT_PORT : Integer.parseInt(hub.substring(colon + 1));
+        try {
+            return connect(host, port);
+        } catch (IOException e) {
+            Log.warn("Could not reach the order hub at %s", hub, e);
+            return null;
+        }
+    }
+
+    /**
+     * The connection to the configured hub, connecting on first use and
+     * again after it drops, at most once every
+     * {@value #RECONNECT_INTERVAL_MILLIS} ms. Blocks for up to
+     * {@link #CONNECT_TIMEOUT_MILLIS}, so never call it on the EDT.
+     *
+     * @return the client, or null if there is no hub to send to right now
+     */
+    static synchronized HubClient shared() {
+        if (shared != null && !shared.closed) {
+            return shared;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextConnectAt) {
+            return null;
+        }
+        nextConnectAt = now + RECONNECT_INTERVAL_MILLIS;
+        shared = fromSystemProperties();
+        return shared;
+    }
+
+    CompletableFuture<HubReply> submit(Order order) {
+        CompletableFuture<HubReply> reply = new CompletableFuture<>();
+        if (closed) {
+            reply.completeExceptionally(new NotSentException("Hub connection closed"));
+            return reply;
+        }
+        int requestId = nextRequestId.incrementAndGet();
+        inFlight.put(requestId, reply);
+        outbox.add(new Submit(requestId, order));
+        if (closed) {
+            // Lost the connection while queueing; disconnected may have missed this one
+            fail(requestId, new NotSentException("Hub connection closed"));
+        }
+        return reply;
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            outbox.add(CLOSE);
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer out = ByteBuffer.allocateDirect(HubProtocol.MAX_FRAME);
+        List<Submit> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(outbox.take());
+                outbox.drainTo(batch);
+                out.clear();
+                for (Submit submit : batch) {
+                    if (submit == CLOSE) {
+                        write(out);
+                        channel.close();
+                        return;
+                    }
+                    if (!HubProtocol.writeSubmit(out, submit.requestId, submit.order)) {
+                        write(out);
+                        out.clear();
+                        if (!HubProtocol.writeSubmit(out, submit.requestId, submit.order)) {
+                            fail(submit.requestId, new NotSentException("Order too large to send"));
+                            continue;
+                        }
+                    }
+                    writtenUpTo = submit.requestId;
+                }
+                write(out);
+                batch.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            disconnected(e);
+        }
+    }
+
+    private void write(ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    private void readLoop() {
+        ByteBuffer in = ByteBuffer.allocate(HubProtocol.MAX_FRAME);
+        try {
+            while (channel.read(in) >= 0) {
+                in.flip();
+                while (HubProtocol.hasFrame(in)) {
+                    int end = in.position() + Integer.BYTES + in.getInt();
+                    byte kind = in.get();
+                    int requestId = in.getInt();
+                    if (kind == HubProtocol.REPLY) {
+                        HubReply reply = HubProtocol.readReply(in, requestId);
+                        CompletableFuture<HubReply> future = inFlight.remove(requestId);
+                        if (future != null) {
+                            future.complete(reply);
+                        }
+                    }
+                    in.position(end);
+                }
+                in.compact();
+            }
+            disconnected(new IOException("Hub closed the connection"));
+        } catch (IOException e) {
+            disconnected(e);
+        }
+    }
+
+    private void fail(int requestId, Exception error) {
+        CompletableFuture<HubReply> future = inFlight.remove(requestId);
+        if (future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    private void disconnected(Exception cause) {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Integer requestId : inFlight.keySet()) {
+            // Anything past writtenUpTo never reached the socket
+            fail(requestId, requestId > writtenUpTo ? new NotSentException("Hub connection lost before sending", cause) : cause);
+        }
+    }
+
+    /**
+     * The order was never written to the hub.
+     */
+    static final class NotSentException extends IOException {
+
+        NotSentException(String message) {
+            super(message);
+        }
+
+        NotSentException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final class Submit {
+
+        final int requestId;
+        final Order order;
+
+        Submit(int requestId, Order order) {
+            this.requestId = requestId;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Load test: {@code host port terminals orders window} runs that many
+     * terminals against a hub, each keeping up to {@code window} orders in
+     * flight, and prints throughput and round-trip latency. Without a port
+     * (or port 0) it starts a hub in this JVM on a free port first.
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int terminals = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int orders = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        int window = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        // Keep admission out of the way, this measures the transport
+        System.setProperty("syzygy.admission.maxInFlight", Integer.toString(Integer.MAX_VALUE));
+        System.setProperty("syzygy.admission.nominalOrdersPerMinute", "1e9");
+        OrderHub local = null;
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        if (port == 0) {
+            local = new OrderHub(0).start();
+            port = local.port();
+        }
+        long[] latencies = new long[terminals * orders];
+        CountDownLatch done = new CountDownLatch(terminals);
+        long start = System.nanoTime();
+        for (int t = 0; t < terminals; t++) {
+            int terminal = t;
+            HubClient client = connect(host, port);
+            new Thread(() -> {
+                Semaphore slots = new Semaphore(window);
+                Order order = new Order("Terminal " + terminal, Arrays.asList(
+                        new OrderLine("Chicken Pizza", "Large", Arrays.asList("Cheese", "Chicken", "Tomato Sauce"), 2, 1200.0)));
+                try {
+                    for (int i = 0; i < orders; i++) {
+                        slots.acquire();
+                        int index = terminal * orders + i;
+                        long sent = System.nanoTime();
+                        client.submit(order).whenComplete((reply, error) -> {
+                            latencies[index] = System.nanoTime() - sent;
+                            slots.release();
+                        });
+                    }
+                    slots.acquire(window);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    client.close();
+                    done.countDown();
+                }
+            }, "terminal-" + t).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%d terminals, %d orders in %d ms: %.0f orders/s%n", terminals, latencies.length,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), latencies.length / (elapsed / 1e9));
+        System.out.printf("Round trip p50 %d us, p99 %d us, max %d us%n",
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[(int) (latencies.length * 0.99)]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]));
+        if (local != null) {
+            local.close();
+        }
+    }
+}
+
+class HubReply {
+
+    // ACCEPTED and FAILED are sent once the hub's kitchen is done with the order
+    enum Outcome {
+        ACCEPTED, DEFERRED, REJECTED, FAILED
+    }
+
+    private final int requestId;
+    private final Outcome outcome;
+    private final int orderId;
+    private final long millis;
+
+    public HubReply(int requestId, Outcome outcome, int orderId, long millis) {
+        this.requestId = requestId;
+        this.outcome = outcome;
+        this.orderId = orderId;
+        this.millis = millis;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * The kitchen's id for an accepted order, otherwise 0.
+     */
+    public int getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * The predicted ready time in epoch millis when ACCEPTED, how long to
+     * wait before sending again when DEFERRED, the quoted wait when REJECTED.
+     */
+    public long getMillis() {
+        return millis;
+    }
+}
@@ -0,0 +1,199 @@
+package gui;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Portions of each ingredient left in the kitchen.
+ *
+ * Adding a pizza to the cart reserves its toppings, removing it or declining
+ * the order gives them back, and confirming the order consumes them. Stock
+ * is held in striped, cache-line padded counters so terminals taking the
+ * same ingredient at once mostly touch different cells. Ingredients that are
+ * not stocked here are treated as unlimited.
+ */
+final class Inventory {
+
+    static final long DEFAULT_STOCK = 500;
+    static final long DEFAULT_LOW_THRESHOLD = 50;
+
+    private static final Inventory SHARED = new Inventory();
+
+    static {
+        for (String topping : PizzaCatalog.toppings()) {
+            SHARED.stock(topping, DEFAULT_STOCK, DEFAULT_LOW_THRESHOLD);
+        }
+    }
+
+    static Inventory shared() {
+        return SHARED;
+    }
+
+    // Flyweight Pattern
+    private final ConcurrentHashMap<IngredientFactory, Stock> stock = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the level of {@code ingredient} and the level at or below which a
+     * STOCK_LOW event is raised. Another STOCK_LOW (0 left) follows when it
+     * runs out, and STOCK_RESTORED when it climbs back over either level.
+     */
+    void stock(String ingredient, long portions, long lowThreshold) {
+        Stock entry = stock.computeIfAbsent(IngredientFactory.createIngredient(ingredient), key -> new Stock(key.getIngredient()));
+        entry.lowThreshold = lowThreshold;
+        entry.set(portions);
+    }
+
+    void restock(String ingredient, long portions) {
+        Stock entry = stock.get(IngredientFactory.createIngredient(ingredient));
+        if (entry != null) {
+            entry.put(portions);
+        }
+    }
+
+    long available(String ingredient) {
+        Stock entry = stock.get(IngredientFactory.createIngredient(ingredient));
+        return entry == null ? Long.MAX_VALUE : entry.available();
+    }
+
+    boolean isAvailable(String ingredient, long portions) {
+        return available(ingredient) >= portions;
+    }
+
+    /**
+     * Takes {@code quantity} portions of every topping, or none of them.
+     *
+     * @return the first topping that ran out, or null if all were reserved
+     */
+    String reserve(List<String> toppings, int quantity) {
+        for (int i = 0; i < toppings.size(); i++) {
+            Stock entry = stock.get(IngredientFactory.createIngredient(toppings.get(i)));
+            if (entry != null && !entry.take(quantity)) {
+                release(toppings.subList(0, i), quantity);
+                return toppings.get(i);
+            }
+        }
+        return null;
+    }
+
+    void release(List<String> toppings, int quantity) {
+        for (String topping : toppings) {
+            Stock entry = stock.get(IngredientFactory.createIngredient(topping));
+            if (entry != null) {
+                entry.put(quantity);
+            }
+        }
+    }
+
+    void release(Order order) {
+        for (OrderLine line : order.getLines()) {
+            release(line.getToppings(), line.getQuantity());
+        }
+    }
+
+    /**
+     * Turns the reservations of a confirmed order into used stock.
+     */
+    void consume(Order order) {
+        for (OrderLine line : order.getLines()) {
+            for (String topping : line.getToppings()) {
+                Stock entry = stock.get(IngredientFactory.createIngredient(topping));
+                if (entry != null) {
+                    entry.consumed.add(line.getQuantity());
+                }
+            }
+        }
+    }
+
+    long consumed(String ingredient) {
+        Stock entry = stock.get(IngredientFactory.createIngredient(ingredient));
+        return entry == null ? 0 : entry.consumed.sum();
+    }
+
+    private static final class Stock {
+
+        // One counter per 64 byte cache line
+        private static final int PAD = 8;
+        private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+        private static final int PLENTY = 0;
+        private static final int LOW = 1;
+        private static final int OUT = 2;
+
+        final String ingredient;
+        final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+        final LongAdder consumed = new LongAdder();
+        final AtomicInteger level = new AtomicInteger(PLENTY);
+        volatile long lowThreshold;
+
+        Stock(String ingredient) {
+            this.ingredient = ingredient;
+        }
+
+        long available() {
+            long total = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                total += cells.get(stripe * PAD);
+            }
+            return total;
+        }
+
+        void set(long portions) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                long share = portions / STRIPES + (stripe < portions % STRIPES ? 1 : 0);
+                cells.set(stripe * PAD, share);
+            }
+            checkLevel();
+        }
+
+        void put(long portions) {
+            cells.addAndGet(home() * PAD, portions);
+            checkLevel();
+        }
+
+        /**
+         * Takes from this thread's own cell first, then borrows from the
+         * others; puts back anything taken if the total falls short.
+         */
+        boolean take(long portions) {
+            long remaining = portions;
+            int home = home();
+            for (int i = 0; i < STRIPES && remaining > 0; i++) {
+                int cell = ((home + i) & (STRIPES - 1)) * PAD;
+                long current = cells.get(cell);
+                while (current > 0) {
+                    long taken = Math.min(current, remaining);
+                    if (cells.compareAndSet(cell, current, current - taken)) {
+                        remaining -= taken;
+                        break;
+                    }
+                    current = cells.get(cell);
+                }
+            }
+            if (remaining > 0) {
+                cells.addAndGet(home * PAD, portions - remaining);
+                return false;
+            }
+            checkLevel();
+            return true;
+        }
+
+        // Raises an event each time the stock moves between plenty, low and out
+        private void checkLevel() {
+            long available = available();
+            int now = available <= 0 ? OUT : available <= lowThreshold ? LOW : PLENTY;
+            int before = level.getAndSet(now);
+            if (now > before) {
+                OrderEventBus.shared().publish(OrderEvent.Type.STOCK_LOW, 0, available, ingredient);
+            } else if (now < before) {
+                OrderEventBus.shared().publish(OrderEvent.Type.STOCK_RESTORED, 0, available, ingredient);
+            }
+        }
+
+        private static int home() {
+            return (int) Thread.currentThread().getId() & (STRIPES - 1);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package gui;
+
+import com.formdev.flatlaf.IntelliJTheme;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GridLayout;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.swing.BorderFactory;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingConstants;
+import javax.swing.Timer;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Live view of every order in the kitchen, grouped by stage.
+ *
+ * State changes arrive from any thread and only flip a dirty flag; a single
+ * Swing timer rebuilds the view from a snapshot of the OrderStateTable at
+ * most {@code framesPerSecond} times a second, however many changes came in.
+ *
+ * @see OrderStateTable
+ */
+public class KitchenDashboard extends JFrame implements OrderStateTable.Listener {
+
+    static final int DEFAULT_FRAMES_PER_SECOND = 10;
+
+    private static final OrderState[] STAGES = {
+        OrderState.CONFIRMED, OrderState.ACCEPTED, OrderState.COOKED, OrderState.PACKED, OrderState.HANDED_OVER
+    };
+
+    private final OrderStateTable table;
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final LongAdder changes = new LongAdder();
+    private final StageTableModel model = new StageTableModel();
+    private final JLabel[] stageCounts = new JLabel[STAGES.length];
+    private final JLabel rateLabel = new JLabel();
+    private final Timer frameTimer;
+    private long lastFrame = System.nanoTime();
+    private long lastElapsedRefresh;
+
+    // The one opened from the shop; closing it only disposes it, so it can be shown again
+    private static KitchenDashboard shown;
+
+    /**
+     * Shows the kitchen view, bringing it to the front if it is already
+     * open. Call on the EDT.
+     */
+    static void showShared() {
+        if (shown == null) {
+            shown = new KitchenDashboard();
+        }
+        if ((shown.getExtendedState() & ICONIFIED) != 0) {
+            shown.setExtendedState(shown.getExtendedState() & ~ICONIFIED);
+        }
+        shown.setVisible(true);
+        shown.toFront();
+        shown.requestFocus();
+    }
+
+    public KitchenDashboard() {
+        this(OrderStateTable.shared(), DEFAULT_FRAMES_PER_SECOND);
+    }
+
+    KitchenDashboard(OrderStateTable table, int framesPerSecond) {
+        this.table = table;
+        initComponents();
+        frameTimer = new Timer(1000 / Math.max(1, framesPerSecond), e -> refresh());
+        frameTimer.setCoalesce(true);
+    }
+
+    private void initComponents() {
+        setTitle("Syzygy Food Corner - Kitchen");
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+
+        JPanel stages = new JPanel(new GridLayout(1, STAGES.length, 8, 0));
+        stages.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        for (int i = 0; i < STAGES.length; i++) {
+            stageCounts[i] = new JLabel();
+            stageCounts[i].setFont(new Font("Segoe UI", 1, 14));
+            stageCounts[i].setForeground(new Color(255, 204, 0));
+            stageCounts[i].setHorizontalAlignment(SwingConstants.CENTER);
+            stages.add(stageCounts[i]);
+        }
+
+        JTable orders = new JTable(model);
+        orders.setFillsViewportHeight(true);
+
+        rateLabel.setBorder(BorderFactory.createEmptyBorder(4, 10, 4, 10));
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(stages, BorderLayout.NORTH);
+        getContentPane().add(new JScrollPane(orders), BorderLayout.CENTER);
+        getContentPane().add(rateLabel, BorderLayout.SOUTH);
+        setSize(720, 480);
+        setLocationRelativeTo(null);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        table.addListener(this);
+        frameTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        frameTimer.stop();
+        table.removeListener(this);
+        super.removeNotify();
+    }
+
+    @Override
+    public void stateChanged(int orderId, OrderState from, OrderState to) {
+        changes.increment();
+        dirty.set(true);
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        // Elapsed times move even when nothing changes, so redraw once a second regardless
+        boolean elapsedDue = now - lastElapsedRefresh >= TimeUnit.SECONDS.toNanos(1);
+        if (!dirty.getAndSet(false) && !elapsedDue) {
+            return;
+        }
+        lastElapsedRefresh = now;
+        model.reload(table, now);
+        for (int i = 0; i < STAGES.length; i++) {
+            stageCounts[i].setText("<html><center>" + STAGES[i].getLabel() + "<br>" + table.count(STAGES[i]) + "</center></html>");
+        }
+        long changed = changes.sumThenReset();
+        double seconds = (now - lastFrame) / 1e9;
+        lastFrame = now;
+        rateLabel.setText(String.format("%d in progress   |   %.0f state changes/s", table.inFlight(), changed / seconds));
+    }
+
+    // Column-wise snapshot of the in-progress orders, sorted by stage then age
+    private static final class StageTableModel extends AbstractTableModel {
+
+        private static final String[] COLUMNS = {"Order", "Stage", "In stage", "Total", "Ready in"};
+
+        private int[] ids = new int[0];
+        private byte[] stages = new byte[0];
+        private long[] inStage = new long[0];
+        private long[] total = new long[0];
+        private long[] readyIn = new long[0];
+        private int rows;
+
+        private int[] scanIds = new int[256];
+        private byte[] scanStages = new byte[256];
+        private long[] scanSince = new long[256];
+        private long[] scanCreated = new long[256];
+        private int scanned;
+
+        void reload(OrderStateTable table, long now) {
+            scanned = 0;
+            table.forEach(this::collect);
+            // Counting sort by stage; the slot walk already yields roughly oldest first within a stage
+            int[] offsets = new int[OrderState.values().length + 1];
+            for (int i = 0; i < scanned; i++) {
+                offsets[scanStages[i] + 1]++;
+            }
+            for (int s = 1; s < offsets.length; s++) {
+                offsets[s] += offsets[s - 1];
+            }
+            if (ids.length < scanned) {
+                ids = new int[scanIds.length];
+                stages = new byte[scanIds.length];
+                inStage = new long[scanIds.length];
+                total = new long[scanIds.length];
+                readyIn = new long[scanIds.length];
+            }
+            EtaEstimator eta = EtaEstimator.shared();
+            long nowMillis = System.currentTimeMillis();
+            for (int i = 0; i < scanned; i++) {
+                int row = offsets[scanStages[i]]++;
+                ids[row] = scanIds[i];
+                stages[row] = scanStages[i];
+                inStage[row] = now - scanSince[i];
+                total[row] = now - scanCreated[i];
+                long readyAt = eta.predictedReadyAt(scanIds[i]);
+                readyIn[row] = readyAt == 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(Math.max(0, readyAt - nowMillis));
+            }
+            rows = scanned;
+            fireTableDataChanged();
+        }
+
+        private void collect(int orderId, OrderState state, long since, long created) {
+            if (state.isReclaimable()) {
+                return;
+            }
+            if (scanned == scanIds.length) {
+                int grown = scanned * 2;
+                scanIds = Arrays.copyOf(scanIds, grown);
+                scanStages = Arrays.copyOf(scanStages, grown);
+                scanSince = Arrays.copyOf(scanSince, grown);
+                scanCreated = Arrays.copyOf(scanCreated, grown);
+            }
+            scanIds[scanned] = orderId;
+            scanStages[scanned] = (byte) state.ordinal();
+            scanSince[scanned] = since;
+            scanCreated[scanned] = created;
+            scanned++;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            switch (column) {
+                case 0:
+                    return "#" + ids[row];
+                case 1:
+                    return OrderState.of(stages[row]).getLabel();
+                case 2:
+                    return formatElapsed(inStage[row]);
+                case 3:
+                    return formatElapsed(total[row]);
+                default:
+                    return readyIn[row] < 0 ? "" : formatElapsed(readyIn[row]);
+            }
+        }
+
+        private static String formatElapsed(long nanos) {
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+    }
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String args[]) {
+        try {
+            InputStream is = (KitchenDashboard.class.getResourceAsStream("/resources/Cobalt_2.theme.json"));
+            IntelliJTheme.setup(is);
+        } catch (Exception e) {
+            Log.warn("Could not load the theme", e);
+        }
+
+        EdtWatchdog.install();
+
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                new KitchenDashboard().setVisible(true);
+            }
+        });
+    }
+}
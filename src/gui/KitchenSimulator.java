@@ -0,0 +1,567 @@
+package gui;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Discrete-event model of the kitchen for planning staff and ovens.
+ *
+ * Orders go through the same stages as the OrderStep chain (accept, cook,
+ * pack, hand over), each a FIFO queue in front of a number of servers:
+ * staff for accepting, packing and handing over, and for cooking a cook with
+ * a free oven. A simulated day runs on one priority queue of events and
+ * takes milliseconds, so {@link #sweep} can try many configurations in
+ * parallel across all cores.
+ */
+final class KitchenSimulator {
+
+    static final int ACCEPT = 0;
+    static final int COOK = 1;
+    static final int PACK = 2;
+    static final int HAND_OVER = 3;
+    static final String[] STAGE_NAMES = {"Accept", "Cook", "Pack", "Hand over"};
+
+    private static final int STAGES = EtaEstimator.STAGES.length;
+
+    private final Config config;
+    private final SplittableRandom random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+
+    // Per order
+    private double[] arrivals;
+    private byte[] sizes;
+    private double[] queuedAt;
+    private double[] latencies;
+
+    // Per stage
+    private final int[] servers = new int[STAGES];
+    private final int[] busy = new int[STAGES];
+    private final List<ArrayDeque<Integer>> queues = new ArrayList<>();
+    private final double[] lastChange = new double[STAGES];
+    private final double[] busyArea = new double[STAGES];
+    private final double[] queueArea = new double[STAGES];
+    private final int[] maxQueue = new int[STAGES];
+    private final double[] waitTotal = new double[STAGES];
+
+    KitchenSimulator(Config config) {
+        this.config = config;
+        this.random = new SplittableRandom(config.seed);
+        for (int stage = 0; stage < STAGES; stage++) {
+            servers[stage] = config.servers(stage);
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Simulates one day: orders arrive through the day and the kitchen runs
+     * until the last one is handed over.
+     */
+    Result run() {
+        arrivals = config.arrivals.arrivals(random);
+        int orders = arrivals.length;
+        sizes = new byte[orders];
+        queuedAt = new double[orders];
+        latencies = new double[orders];
+        for (int order = 0; order < orders; order++) {
+            sizes[order] = (byte) pick(config.sizeMix);
+        }
+        if (orders > 0) {
+            Arrays.fill(lastChange, arrivals[0]);
+            schedule(arrivals[0], -1, 0);
+        }
+        double now = 0;
+        for (Event event; (event = events.poll()) != null;) {
+            now = event.time;
+            if (event.stage < 0) {
+                enter(ACCEPT, event.order, now);
+                if (event.order + 1 < orders) {
+                    schedule(arrivals[event.order + 1], -1, event.order + 1);
+                }
+            } else {
+                finish(event.stage, event.order, now);
+            }
+        }
+        // Utilisation and queues are over the trading day, first order to last
+        double opened = orders > 0 ? arrivals[0] : 0;
+        for (int stage = 0; stage < STAGES; stage++) {
+            advance(stage, now);
+        }
+        return new Result(config, orders, Math.max(1, now - opened), servers, busyArea, queueArea, maxQueue, waitTotal, latencies);
+    }
+
+    private void enter(int stage, int order, double now) {
+        queuedAt[order] = now;
+        if (busy[stage] < servers[stage]) {
+            start(stage, order, now);
+        } else {
+            advance(stage, now);
+            ArrayDeque<Integer> queue = queues.get(stage);
+            queue.add(order);
+            maxQueue[stage] = Math.max(maxQueue[stage], queue.size());
+        }
+    }
+
+    private void start(int stage, int order, double now) {
+        advance(stage, now);
+        busy[stage]++;
+        waitTotal[stage] += now - queuedAt[order];
+        double service = config.serviceTimes[stage].sampleMillis(random);
+        if (stage == COOK) {
+            service *= EtaEstimator.SIZE_FACTORS[Math.min(sizes[order], EtaEstimator.SIZE_FACTORS.length - 1)];
+        }
+        schedule(now + service, stage, order);
+    }
+
+    private void finish(int stage, int order, double now) {
+        advance(stage, now);
+        busy[stage]--;
+        Integer next = queues.get(stage).poll();
+        if (next != null) {
+            start(stage, next, now);
+        }
+        if (stage + 1 < STAGES) {
+            enter(stage + 1, order, now);
+        } else {
+            latencies[order] = now - arrivals[order];
+        }
+    }
+
+    // Accumulates busy servers and queue length over time up to now
+    private void advance(int stage, double now) {
+        double elapsed = now - lastChange[stage];
+        busyArea[stage] += busy[stage] * elapsed;
+        queueArea[stage] += queues.get(stage).size() * elapsed;
+        lastChange[stage] = now;
+    }
+
+    private void schedule(double time, int stage, int order) {
+        events.add(new Event(time, sequence++, stage, order));
+    }
+
+    private int pick(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double point = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * Runs every configuration, in parallel.
+     *
+     * @return the results in the order of {@code configs}
+     */
+    static List<Result> sweep(List<Config> configs) {
+        return configs.parallelStream().map(config -> new KitchenSimulator(config).run()).collect(Collectors.toList());
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        final double time;
+        final long sequence;
+        final int stage;
+        final int order;
+
+        Event(double time, long sequence, int stage, int order) {
+            this.time = time;
+            this.sequence = sequence;
+            this.stage = stage;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Double.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * One kitchen setup to simulate. Stage times default to lognormal
+     * around the EtaEstimator's starting means.
+     */
+    static final class Config {
+
+        final String label;
+        final int[] staff;
+        final int ovens;
+        final ServiceTime[] serviceTimes;
+        final ArrivalProfile arrivals;
+        final double[] sizeMix;
+        final long seed;
+
+        private Config(Builder builder) {
+            this.staff = builder.staff.clone();
+            this.ovens = builder.ovens;
+            this.serviceTimes = builder.serviceTimes.clone();
+            this.arrivals = builder.arrivals;
+            this.sizeMix = builder.sizeMix.clone();
+            this.seed = builder.seed;
+            this.label = builder.label != null ? builder.label
+                    : String.format("staff %s, ovens %d", Arrays.toString(staff), ovens);
+        }
+
+        int servers(int stage) {
+            return stage == COOK ? Math.min(staff[COOK], ovens) : staff[stage];
+        }
+
+        Builder toBuilder() {
+            Builder builder = new Builder();
+            builder.staff = staff.clone();
+            builder.ovens = ovens;
+            builder.serviceTimes = serviceTimes.clone();
+            builder.arrivals = arrivals;
+            builder.sizeMix = sizeMix.clone();
+            builder.seed = seed;
+            return builder;
+        }
+
+        static class Builder {
+
+            private String label;
+            private int[] staff = {1, 1, 1, 1};
+            private int ovens = Integer.getInteger("syzygy.kitchen.ovens", 2);
+            private ServiceTime[] serviceTimes = {
+                ServiceTime.lognormal(EtaEstimator.DEFAULT_STAGE_MILLIS[ACCEPT], 0.5),
+                ServiceTime.lognormal(EtaEstimator.DEFAULT_STAGE_MILLIS[COOK], 0.2),
+                ServiceTime.lognormal(EtaEstimator.DEFAULT_STAGE_MILLIS[PACK], 0.5),
+                ServiceTime.lognormal(EtaEstimator.DEFAULT_STAGE_MILLIS[HAND_OVER], 0.5)
+            };
+            private ArrivalProfile arrivals = ArrivalProfile.synthetic(8);
+            private double[] sizeMix = {0.3, 0.45, 0.25};
+            private long seed = 1;
+
+            public Builder setLabel(String label) {
+                this.label = label;
+                return this;
+            }
+
+            public Builder setStaff(int stage, int count) {
+                this.staff[stage] = count;
+                return this;
+            }
+
+            public Builder setOvens(int ovens) {
+                this.ovens = ovens;
+                return this;
+            }
+
+            public Builder setServiceTime(int stage, ServiceTime serviceTime) {
+                this.serviceTimes[stage] = serviceTime;
+                return this;
+            }
+
+            /**
+             * Stage times around what the live kitchen has measured, for
+             * medium pizzas; size is applied on top when cooking.
+             */
+            public Builder setServiceTimes(EtaEstimator measured, double variation) {
+                for (int stage = 0; stage < STAGES; stage++) {
+                    serviceTimes[stage] = ServiceTime.lognormal(
+                            measured.meanStageMillis(EtaEstimator.STAGES[stage], "Medium") / EtaEstimator.SIZE_FACTORS[1], variation);
+                }
+                return this;
+            }
+
+            public Builder setArrivals(ArrivalProfile arrivals) {
+                this.arrivals = arrivals;
+                return this;
+            }
+
+            /**
+             * Relative share of each PizzaCatalog size.
+             */
+            public Builder setSizeMix(double... sizeMix) {
+                this.sizeMix = sizeMix.clone();
+                return this;
+            }
+
+            public Builder setSeed(long seed) {
+                this.seed = seed;
+                return this;
+            }
+
+            public Config build() {
+                for (int stage = 0; stage < STAGES; stage++) {
+                    if (staff[stage] < 1) {
+                        throw new IllegalArgumentException(STAGE_NAMES[stage] + " needs at least one person");
+                    }
+                }
+                if (ovens < 1) {
+                    throw new IllegalArgumentException("The kitchen needs at least one oven");
+                }
+                return new Config(this);
+            }
+        }
+    }
+
+    /**
+     * What one simulated day looked like.
+     */
+    static final class Result {
+
+        final Config config;
+        final int orders;
+        final double[] utilisation = new double[STAGES];
+        final double[] meanQueue = new double[STAGES];
+        final int[] maxQueue;
+        final double[] meanWaitMillis = new double[STAGES];
+        private final double[] sortedLatencies;
+
+        Result(Config config, int orders, double horizon, int[] servers, double[] busyArea, double[] queueArea,
+                int[] maxQueue, double[] waitTotal, double[] latencies) {
+            this.config = config;
+            this.orders = orders;
+            this.maxQueue = maxQueue.clone();
+            for (int stage = 0; stage < STAGES; stage++) {
+                utilisation[stage] = busyArea[stage] / (servers[stage] * horizon);
+                meanQueue[stage] = queueArea[stage] / horizon;
+                meanWaitMillis[stage] = orders == 0 ? 0 : waitTotal[stage] / orders;
+            }
+            this.sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+        }
+
+        /**
+         * Order latency, arrival to hand over, at percentile {@code p} (0-100).
+         */
+        double latencyMillis(double p) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p / 100.0 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+        }
+
+        static String header() {
+            StringBuilder header = new StringBuilder(String.format("%-32s %6s %7s %7s %7s", "Configuration", "Orders", "p50", "p90", "p99"));
+            for (String stage : STAGE_NAMES) {
+                header.append(String.format(" %10s", stage));
+            }
+            return header.append("   (latency in minutes; utilisation / mean queue per stage)").toString();
+        }
+
+        String row() {
+            StringBuilder row = new StringBuilder(String.format("%-32s %6d %7.1f %7.1f %7.1f", config.label, orders,
+                    minutes(latencyMillis(50)), minutes(latencyMillis(90)), minutes(latencyMillis(99))));
+            for (int stage = 0; stage < STAGES; stage++) {
+                row.append(String.format(" %4.0f%%/%-4.1f", utilisation[stage] * 100, meanQueue[stage]));
+            }
+            return row.toString();
+        }
+
+        String format() {
+            StringBuilder report = new StringBuilder("Kitchen simulation: ").append(config.label).append('\n');
+            report.append(String.format("Orders: %d, latency p50 %.1f min, p90 %.1f min, p99 %.1f min, max %.1f min%n",
+                    orders, minutes(latencyMillis(50)), minutes(latencyMillis(90)), minutes(latencyMillis(99)),
+                    minutes(latencyMillis(100))));
+            for (int stage = 0; stage < STAGES; stage++) {
+                report.append(String.format("%-10s %d server(s), utilisation %.0f%%, queue mean %.1f max %d, wait mean %.1f min%n",
+                        STAGE_NAMES[stage], config.servers(stage), utilisation[stage] * 100, meanQueue[stage],
+                        maxQueue[stage], minutes(meanWaitMillis[stage])));
+            }
+            return report.toString();
+        }
+
+        private static double minutes(double millis) {
+            return millis / 60000.0;
+        }
+    }
+
+    /**
+     * Runs a staffing sweep against a synthetic day: {@code peakOrdersPerHour}
+     * (default 15), then the most ovens and cooks to try (default 6).
+     */
+    public static void main(String[] args) {
+        double peak = args.length > 0 ? Double.parseDouble(args[0]) : 15;
+        int most = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        Config base = new Config.Builder().setArrivals(ArrivalProfile.synthetic(peak)).build();
+        List<Config> configs = new ArrayList<>();
+        for (int ovens = 1; ovens <= most; ovens++) {
+            for (int cooks = 1; cooks <= ovens; cooks++) {
+                for (int packers = 1; packers <= 2; packers++) {
+                    configs.add(base.toBuilder().setOvens(ovens).setStaff(COOK, cooks).setStaff(PACK, packers)
+                            .setStaff(HAND_OVER, packers).build());
+                }
+            }
+        }
+        long start = System.nanoTime();
+        List<Result> results = sweep(configs);
+        long elapsed = System.nanoTime() - start;
+        System.out.println(Result.header());
+        for (Result result : results) {
+            System.out.println(result.row());
+        }
+        System.out.printf("%d simulated days in %d ms%n", results.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+}
+
+/**
+ * How long one order spends being served at a stage.
+ */
+interface ServiceTime {
+
+    double sampleMillis(SplittableRandom random);
+
+    static ServiceTime fixed(double millis) {
+        return random -> millis;
+    }
+
+    static ServiceTime exponential(double meanMillis) {
+        return random -> -meanMillis * Math.log(1.0 - random.nextDouble());
+    }
+
+    /**
+     * Skewed like real prep times: mostly near the mean with a long tail.
+     *
+     * @param variation standard deviation as a fraction of the mean
+     */
+    static ServiceTime lognormal(double meanMillis, double variation) {
+        double sigma = Math.sqrt(Math.log(1 + variation * variation));
+        double mu = Math.log(meanMillis) - sigma * sigma / 2;
+        return random -> {
+            // Box-Muller; SplittableRandom has no nextGaussian before Java 17
+            double u = 1.0 - random.nextDouble();
+            double gaussian = Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+            return Math.exp(mu + sigma * gaussian);
+        };
+    }
+
+    /**
+     * Resamples recorded times.
+     */
+    static ServiceTime empirical(double[] samplesMillis) {
+        if (samplesMillis.length == 0) {
+            throw new IllegalArgumentException("No recorded times");
+        }
+        double[] samples = samplesMillis.clone();
+        return random -> samples[random.nextInt(samples.length)];
+    }
+}
+
+/**
+ * Expected orders per hour through the day, per quarter hour, from which
+ * arrival times are drawn as a Poisson process.
+ */
+final class ArrivalProfile {
+
+    static final int SLOTS_PER_DAY = 24 * 4;
+    private static final double SLOT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final double[] ordersPerHour;
+
+    private ArrivalProfile(double[] ordersPerHour) {
+        this.ordersPerHour = ordersPerHour;
+    }
+
+    static ArrivalProfile of(double[] ordersPerHourBySlot) {
+        if (ordersPerHourBySlot.length != SLOTS_PER_DAY) {
+            throw new IllegalArgumentException("Need " + SLOTS_PER_DAY + " quarter hours, got " + ordersPerHourBySlot.length);
+        }
+        return new ArrivalProfile(ordersPerHourBySlot.clone());
+    }
+
+    /**
+     * Open 11:00 to 23:00 with a lunch peak at 13:00 and a larger dinner peak
+     * at 19:30 of {@code peakOrdersPerHour}.
+     */
+    static ArrivalProfile synthetic(double peakOrdersPerHour) {
+        double[] rates = new double[SLOTS_PER_DAY];
+        for (int slot = 11 * 4; slot < 23 * 4; slot++) {
+            double hour = slot / 4.0 + 0.125;
+            double lunch = 0.6 * Math.exp(-Math.pow((hour - 13.0) / 1.0, 2));
+            double dinner = Math.exp(-Math.pow((hour - 19.5) / 1.5, 2));
+            rates[slot] = peakOrdersPerHour * Math.max(0.15, lunch + dinner);
+        }
+        return new ArrivalProfile(rates);
+    }
+
+    /**
+     * The average day of recorded sales: orders completed in each quarter
+     * hour of {@code lines}, divided by the {@code days} they span.
+     */
+    static ArrivalProfile fromHistory(SalesAnalytics.Lines lines, ZoneId zone, int days) {
+        double[] rates = new double[SLOTS_PER_DAY];
+        int lastOrder = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            // Lines of one order are adjacent
+            if (i > 0 && lines.orderId(i) == lastOrder) {
+                continue;
+            }
+            lastOrder = lines.orderId(i);
+            Instant at = Instant.ofEpochSecond(lines.minute(i) * 60L);
+            int offsetMinutes = zone.getRules().getOffset(at).getTotalSeconds() / 60;
+            int minuteOfDay = Math.floorMod(lines.minute(i) + offsetMinutes, 24 * 60);
+            rates[minuteOfDay / 15] += 4.0 / Math.max(1, days);
+        }
+        return new ArrivalProfile(rates);
+    }
+
+    static ArrivalProfile fromHistory(LocalDate from, LocalDate to) {
+        ZoneId zone = ZoneId.systemDefault();
+        SalesAnalytics.Lines lines = SalesAnalytics.shared().lines(from.atStartOfDay(zone).toInstant().toEpochMilli(),
+                to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+        return fromHistory(lines, zone, (int) (to.toEpochDay() - from.toEpochDay() + 1));
+    }
+
+    ArrivalProfile scaled(double factor) {
+        double[] rates = ordersPerHour.clone();
+        for (int slot = 0; slot < rates.length; slot++) {
+            rates[slot] *= factor;
+        }
+        return new ArrivalProfile(rates);
+    }
+
+    double ordersPerHour(int slot) {
+        return ordersPerHour[slot];
+    }
+
+    double expectedOrders() {
+        double total = 0;
+        for (double rate : ordersPerHour) {
+            total += rate / 4;
+        }
+        return total;
+    }
+
+    /**
+     * Draws one day of arrival times, in millis since midnight, ascending.
+     */
+    double[] arrivals(SplittableRandom random) {
+        double[] times = new double[Math.max(16, (int) (expectedOrders() * 1.5))];
+        int count = 0;
+        for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+            double perMilli = ordersPerHour[slot] / TimeUnit.HOURS.toMillis(1);
+            if (perMilli <= 0) {
+                continue;
+            }
+            double start = slot * SLOT_MILLIS;
+            // Memoryless, so restarting at each slot boundary is exact
+            for (double t = start - Math.log(1.0 - random.nextDouble()) / perMilli; t < start + SLOT_MILLIS;
+                    t -= Math.log(1.0 - random.nextDouble()) / perMilli) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, times.length * 2);
+                }
+                times[count++] = t;
+            }
+        }
+        return Arrays.copyOf(times, count);
+    }
+}
@@ -0,0 +1,424 @@
+package gui;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The shop's log, written off the calling thread.
+ *
+ * A call copies its level, time, thread name, format and arguments into a
+ * slot of a pre-allocated ring and returns; nothing is formatted and nothing
+ * is allocated unless a caller boxes or concatenates its own arguments. The
+ * {@code log-writer} thread formats whatever has been published since its
+ * last pass and writes it to {@code syzygy.log.dir} (default
+ * {@code ~/.syzygy/logs}) in one go, rolling the file over at
+ * {@code syzygy.log.maxBytes}. If the writer falls a whole ring behind, new
+ * records are dropped and counted rather than making callers wait.
+ *
+ * Formats take {@code %s} for the next string argument, {@code %d} for the
+ * next number, {@code %m} for the next number as an amount in cents and
+ * {@code %%} for a percent sign. Strings and numbers are consumed
+ * independently, each in order. Records at {@code syzygy.log.consoleLevel}
+ * (default WARN) or above are copied to standard error.
+ */
+final class Log {
+
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    static final int DEFAULT_CAPACITY = 1 << 12;
+
+    private static final Log SHARED = new Log(
+            Paths.get(System.getProperty("syzygy.log.dir", System.getProperty("user.home") + "/.syzygy/logs")),
+            DEFAULT_CAPACITY,
+            Level.valueOf(System.getProperty("syzygy.log.level", "INFO").toUpperCase(Locale.ROOT)),
+            Level.valueOf(System.getProperty("syzygy.log.consoleLevel", "WARN").toUpperCase(Locale.ROOT)),
+            Long.getLong("syzygy.log.maxBytes", 8L << 20),
+            Integer.getInteger("syzygy.log.files", 5));
+
+    static {
+        SHARED.start();
+    }
+
+    static Log shared() {
+        return SHARED;
+    }
+
+    static void debug(String format, String s0, long n0) {
+        SHARED.log(Level.DEBUG, format, s0, null, n0, 0, 0, null);
+    }
+
+    static void info(String format) {
+        SHARED.log(Level.INFO, format, null, null, 0, 0, 0, null);
+    }
+
+    static void info(String format, long n0) {
+        SHARED.log(Level.INFO, format, null, null, n0, 0, 0, null);
+    }
+
+    static void info(String format, String s0) {
+        SHARED.log(Level.INFO, format, s0, null, 0, 0, 0, null);
+    }
+
+    static void info(String format, String s0, long n0) {
+        SHARED.log(Level.INFO, format, s0, null, n0, 0, 0, null);
+    }
+
+    static void info(String format, String s0, String s1, long n0, long n1) {
+        SHARED.log(Level.INFO, format, s0, s1, n0, n1, 0, null);
+    }
+
+    static void warn(String format, String s0) {
+        SHARED.log(Level.WARN, format, s0, null, 0, 0, 0, null);
+    }
+
+    static void warn(String format, Throwable thrown) {
+        SHARED.log(Level.WARN, format, null, null, 0, 0, 0, thrown);
+    }
+
+    static void warn(String format, String s0, Throwable thrown) {
+        SHARED.log(Level.WARN, format, s0, null, 0, 0, 0, thrown);
+    }
+
+    static void error(String format, Throwable thrown) {
+        SHARED.log(Level.ERROR, format, null, null, 0, 0, 0, thrown);
+    }
+
+    static void error(String format, String s0, Throwable thrown) {
+        SHARED.log(Level.ERROR, format, s0, null, 0, 0, 0, thrown);
+    }
+
+    private static final long EMPTY = -1L;
+
+    private final Path directory;
+    private final Level level;
+    private final Level consoleLevel;
+    private final long maxBytes;
+    private final int files;
+    private final int mask;
+    private final Slot[] ring;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long released;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long droppedReported;
+    private final Thread writer;
+    private volatile boolean sleeping;
+
+    // Writer state, only touched while holding the lock on this
+    private final StringBuilder text = new StringBuilder(1 << 12);
+    private final StringBuilder console = new StringBuilder();
+    private char[] chars = new char[1 << 14];
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 16);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private FileChannel channel;
+    private long fileSize;
+    private long hourStart = Long.MAX_VALUE;
+    private long hourEnd = Long.MIN_VALUE;
+    private String hourPrefix;
+
+    Log(Path directory, int capacity, Level level, Level consoleLevel, long maxBytes, int files) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.directory = directory;
+        this.level = level;
+        this.consoleLevel = consoleLevel;
+        this.maxBytes = maxBytes;
+        this.files = Math.max(1, files);
+        this.mask = capacity - 1;
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        this.writer = new Thread(this::writeLoop, "log-writer");
+        writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-shutdown"));
+    }
+
+    boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    long droppedRecords() {
+        return droppedReported + dropped.sum();
+    }
+
+    Path file() {
+        return directory.resolve("syzygy.log");
+    }
+
+    /**
+     * Queues a record; never blocks and never throws.
+     */
+    void log(Level level, String format, String s0, String s1, long n0, long n1, long n2, Throwable thrown) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - released >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = ring[(int) (sequence & mask)];
+        slot.level = level;
+        slot.time = System.currentTimeMillis();
+        slot.thread = Thread.currentThread().getName();
+        slot.format = format;
+        slot.s0 = s0;
+        slot.s1 = s1;
+        slot.n0 = n0;
+        slot.n1 = n1;
+        slot.n2 = n2;
+        slot.thrown = thrown;
+        slot.sequence = sequence;
+        if (sleeping && (level == Level.ERROR || sequence - released >= ring.length / 2)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until everything logged before the call has been written.
+     */
+    boolean awaitWritten(long timeout, TimeUnit unit) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (released < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            if (drain() == 0) {
+                sleeping = true;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                sleeping = false;
+            }
+        }
+    }
+
+    // Formats and writes everything published so far; the writer thread and the shutdown hook share it
+    synchronized int drain() {
+        int count = 0;
+        try {
+            long cursor = released;
+            for (Slot slot; (slot = ring[(int) (cursor & mask)]).sequence == cursor; cursor++) {
+                format(slot);
+                slot.clear();
+                released = cursor + 1;
+                count++;
+                if (text.length() >= 1 << 14) {
+                    write();
+                }
+            }
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                droppedReported += lost;
+                appendLine(Level.WARN, System.currentTimeMillis(), writer.getName());
+                text.append("Dropped ").append(lost).append(" log records, the writer fell behind\n");
+            }
+            if (text.length() > 0) {
+                write();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nowhere left to log to
+            text.setLength(0);
+            e.printStackTrace();
+        }
+        if (console.length() > 0) {
+            System.err.print(console);
+            console.setLength(0);
+        }
+        return count;
+    }
+
+    private void format(Slot slot) {
+        int start = appendLine(slot.level, slot.time, slot.thread);
+        String format = slot.format;
+        int strings = 0;
+        int numbers = 0;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%' || i + 1 == format.length()) {
+                text.append(c);
+                continue;
+            }
+            char conversion = format.charAt(++i);
+            if (conversion == 's') {
+                text.append(strings++ == 0 ? slot.s0 : slot.s1);
+            } else if (conversion == 'd') {
+                text.append(number(slot, numbers++));
+            } else if (conversion == 'm') {
+                appendCents(number(slot, numbers++));
+            } else {
+                text.append(conversion);
+            }
+        }
+        text.append('\n');
+        if (slot.thrown != null) {
+            StringWriter trace = new StringWriter();
+            slot.thrown.printStackTrace(new PrintWriter(trace));
+            text.append(trace);
+        }
+        if (slot.level.compareTo(consoleLevel) >= 0) {
+            console.append(text, start, text.length());
+        }
+    }
+
+    private static long number(Slot slot, int index) {
+        return index == 0 ? slot.n0 : index == 1 ? slot.n1 : slot.n2;
+    }
+
+    private void appendCents(long cents) {
+        if (cents < 0) {
+            text.append('-');
+            cents = -cents;
+        }
+        text.append(cents / 100).append('.');
+        appendDigits(cents % 100, 2);
+    }
+
+    // Writes the time, level and thread; returns where the line starts
+    private int appendLine(Level level, long time, String thread) {
+        int start = text.length();
+        if (time < hourStart || time >= hourEnd) {
+            ZonedDateTime hour = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS);
+            hourStart = hour.toInstant().toEpochMilli();
+            hourEnd = hour.plusHours(1).toInstant().toEpochMilli();
+            hourPrefix = String.format("%tF %<tH:", hour);
+        }
+        long inHour = time - hourStart;
+        text.append(hourPrefix);
+        appendDigits(inHour / 60_000, 2);
+        text.append(':');
+        appendDigits(inHour / 1000 % 60, 2);
+        text.append('.');
+        appendDigits(inHour % 1000, 3);
+        text.append(' ').append(level.name());
+        for (int i = level.name().length(); i < 6; i++) {
+            text.append(' ');
+        }
+        text.append('[').append(thread).append("] ");
+        return start;
+    }
+
+    private void appendDigits(long value, int width) {
+        long bound = 1;
+        while (--width > 0) {
+            bound *= 10;
+        }
+        for (; bound > 1 && value < bound; bound /= 10) {
+            text.append('0');
+        }
+        text.append(value);
+    }
+
+    private void write() throws IOException {
+        if (channel == null || fileSize >= maxBytes) {
+            roll();
+        }
+        int length = text.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        text.getChars(0, length, chars, 0);
+        text.setLength(0);
+        CharBuffer pending = CharBuffer.wrap(chars, 0, length);
+        encoder.reset();
+        while (true) {
+            boolean more = encoder.encode(pending, bytes, true).isOverflow();
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                fileSize += channel.write(bytes);
+            }
+            bytes.clear();
+            if (!more) {
+                break;
+            }
+        }
+    }
+
+    // Keeps syzygy.log and up to files - 1 older ones, syzygy.1.log being the newest of those
+    private void roll() throws IOException {
+        Path current = file();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            for (int i = files - 1; i >= 1; i--) {
+                Path older = directory.resolve("syzygy." + i + ".log");
+                if (Files.exists(older)) {
+                    if (i + 1 < files) {
+                        Files.move(older, directory.resolve("syzygy." + (i + 1) + ".log"), StandardCopyOption.REPLACE_EXISTING);
+                    } else {
+                        Files.delete(older);
+                    }
+                }
+            }
+            if (files > 1) {
+                Files.move(current, directory.resolve("syzygy.1.log"), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(current);
+            }
+        }
+        Files.createDirectories(directory);
+        channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    private static final class Slot {
+
+        volatile long sequence = EMPTY;
+        Level level;
+        long time;
+        String thread;
+        String format;
+        String s0;
+        String s1;
+        long n0;
+        long n1;
+        long n2;
+        Throwable thrown;
+
+        // Lets go of what the caller passed in before the slot is reused
+        void clear() {
+            s0 = null;
+            s1 = null;
+            thrown = null;
+        }
+    }
+}
@@ -2,7 +2,11 @@ package gui;
 
 import com.formdev.flatlaf.IntelliJTheme;
 import java.io.InputStream;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  *
@@ -15,6 +19,51 @@ public class Login extends javax.swing.JFrame {
      */
     public Login() {
         initComponents();
+        installSuggestions();
+    }
+
+    private final JPopupMenu suggestions = new JPopupMenu();
+
+    // Known customers starting with what has been typed, under the field
+    private void installSuggestions() {
+        suggestions.setFocusable(false);
+        jTextField1.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                showSuggestions();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                showSuggestions();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+    }
+
+    private void showSuggestions() {
+        suggestions.setVisible(false);
+        suggestions.removeAll();
+        String typed = jTextField1.getText().trim();
+        if (typed.isEmpty() || !jTextField1.isShowing()) {
+            return;
+        }
+        for (String name : CustomerIndex.shared().suggest(typed, 6)) {
+            if (name.equals(typed)) {
+                continue;
+            }
+            JMenuItem item = new JMenuItem(name);
+            item.setFont(jTextField1.getFont().deriveFont(24f));
+            item.addActionListener(e -> jTextField1.setText(name));
+            suggestions.add(item);
+        }
+        if (suggestions.getComponentCount() > 0) {
+            suggestions.setPopupSize(jTextField1.getWidth(), suggestions.getPreferredSize().height);
+            suggestions.show(jTextField1, 0, jTextField1.getHeight());
+        }
     }
 
     /**
@@ -104,9 +153,9 @@ public class Login extends javax.swing.JFrame {
         if (name.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Please enter Your Username", "Warning", JOptionPane.WARNING_MESSAGE);
         } else {
-            Shop shop = new Shop();
+            CustomerIndex.shared().add(name);
+            Shop shop = new Shop(SessionRegistry.shared().open(name));
             shop.setVisible(true);
-            shop.jLabel10.setText(name);
             this.dispose();
         }
     }//GEN-LAST:event_jButton1ActionPerformed
@@ -120,9 +169,11 @@ public class Login extends javax.swing.JFrame {
             IntelliJTheme.setup(is);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.warn("Could not load the theme", e);
         }
 
+        EdtWatchdog.install();
+
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
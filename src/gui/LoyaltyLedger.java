@@ -0,0 +1,328 @@
+package gui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loyalty points per customer, keyed by the name they log in with.
+ *
+ * Confirmed orders earn {@code syzygy.loyalty.earnPercent} (default 5) of
+ * what was paid as points worth Rs 1 each, and points can pay for part of
+ * an order at checkout. An order that fails in the kitchen has its earned
+ * points taken back (REVERSAL) and its redeemed points refunded. Each
+ * account's balance is a single atomic updated
+ * by compare-and-set, so orders for different customers never contend and
+ * a balance lookup is one hash probe.
+ *
+ * Every change is also appended to a journal ({@code syzygy.loyalty.journal},
+ * default {@code ~/.syzygy/loyalty.journal}) by a background writer, and
+ * balances are rebuilt from it on start. Lines are tab separated: sequence,
+ * epoch millis, kind, order id, points, balance after, customer.
+ */
+final class LoyaltyLedger implements OrderEventBus.Handler {
+
+    static final Path DEFAULT_JOURNAL = Paths.get(System.getProperty("syzygy.loyalty.journal",
+            System.getProperty("user.home") + "/.syzygy/loyalty.journal"));
+    static final long POINT_VALUE_CENTS = 100;
+
+    enum Kind {
+        EARN, REDEEM, REFUND, REVERSAL
+    }
+
+    private static LoyaltyLedger shared;
+
+    static synchronized LoyaltyLedger shared() {
+        if (shared == null) {
+            shared = new LoyaltyLedger(DEFAULT_JOURNAL, Double.parseDouble(System.getProperty("syzygy.loyalty.earnPercent", "5")));
+            try {
+                shared.replay();
+            } catch (IOException e) {
+                Log.error("Could not replay the loyalty journal", e);
+            }
+            shared.start();
+            OrderEventBus.shared().subscribeGating("loyalty", shared);
+        }
+        return shared;
+    }
+
+    private final Path journal;
+    private final double earnPercent;
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Confirmed orders still in the kitchen, so a failure can be undone; bus thread only
+    private final Map<Integer, Earning> inKitchen = new HashMap<>();
+    private final Queue<Entry> unwritten = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "loyalty-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    LoyaltyLedger(Path journal, double earnPercent) {
+        this.journal = journal;
+        this.earnPercent = earnPercent;
+    }
+
+    void start() {
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                Log.error("Could not write the loyalty journal", e);
+            }
+        }, 200, 200, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                Log.error("Could not write the loyalty journal", e);
+            }
+        }, "loyalty-journal-shutdown"));
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        Order order = event.getOrder();
+        switch (event.getType()) {
+            case ORDER_CONFIRMED:
+                if (order != null) {
+                    long points = pointsEarned(order.getAmountDueCents());
+                    if (points > 0) {
+                        change(order.getCustomerName(), order.getOrderId(), Kind.EARN, points);
+                    }
+                    inKitchen.put(order.getOrderId(), new Earning(order, points));
+                }
+                break;
+            case ORDER_DECLINED:
+                if (order != null) {
+                    refund(order);
+                }
+                break;
+            case ORDER_COMPLETED:
+                inKitchen.remove(event.getOrderId());
+                break;
+            case ORDER_FAILED:
+                Earning failed = inKitchen.remove(event.getOrderId());
+                if (failed != null) {
+                    if (failed.points > 0) {
+                        change(failed.order.getCustomerName(), failed.order.getOrderId(), Kind.REVERSAL, -failed.points);
+                    }
+                    refund(failed.order);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    long pointsEarned(long amountCents) {
+        return (long) (amountCents * earnPercent / 100.0 / POINT_VALUE_CENTS);
+    }
+
+    /**
+     * Points needed to pay the whole of {@code amountCents}.
+     */
+    static long pointsToCover(long amountCents) {
+        return (amountCents + POINT_VALUE_CENTS - 1) / POINT_VALUE_CENTS;
+    }
+
+    long balance(String customer) {
+        Account account = accounts.get(key(customer));
+        return account == null ? 0 : account.balance.get();
+    }
+
+    /**
+     * Takes up to {@code maxPoints} from the customer's balance.
+     *
+     * @return the points actually taken, 0 if there were none
+     */
+    long redeem(String customer, int orderId, long maxPoints) {
+        if (maxPoints <= 0) {
+            return 0;
+        }
+        Account account = accounts.get(key(customer));
+        if (account == null) {
+            return 0;
+        }
+        long current;
+        long taken;
+        do {
+            current = account.balance.get();
+            taken = Math.min(current, maxPoints);
+            if (taken <= 0) {
+                return 0;
+            }
+        } while (!account.balance.compareAndSet(current, current - taken));
+        record(account, orderId, Kind.REDEEM, -taken, current - taken);
+        return taken;
+    }
+
+    /**
+     * Gives back the points an order redeemed if it did not go through.
+     * Only the first call for an order does anything.
+     */
+    void refund(Order order) {
+        if (order.getRedeemedPoints() > 0 && order.returnRedeemedPoints()) {
+            change(order.getCustomerName(), order.getOrderId(), Kind.REFUND, order.getRedeemedPoints());
+        }
+    }
+
+    private void change(String customer, int orderId, Kind kind, long points) {
+        Account account = accounts.computeIfAbsent(key(customer), k -> new Account(customer.trim()));
+        long balance = account.balance.addAndGet(points);
+        record(account, orderId, kind, points, balance);
+    }
+
+    private void record(Account account, int orderId, Kind kind, long points, long balance) {
+        unwritten.add(new Entry(sequence.incrementAndGet(), System.currentTimeMillis(), kind, orderId, points, balance, account.name));
+    }
+
+    /**
+     * Appends everything recorded so far to the journal.
+     */
+    synchronized void flush() throws IOException {
+        if (unwritten.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(journal.toAbsolutePath().getParent());
+        StringBuilder text = new StringBuilder();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (Entry entry; (entry = unwritten.poll()) != null;) {
+                entry.appendTo(text);
+                if (text.length() >= 1 << 15 || unwritten.isEmpty()) {
+                    ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    text.setLength(0);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    // Rebuilds balances from the journal; points add up in any order
+    void replay() throws IOException {
+        long last = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null;) {
+                Entry entry = Entry.parse(line);
+                if (entry == null) {
+                    continue;
+                }
+                accounts.computeIfAbsent(key(entry.customer), k -> new Account(entry.customer)).balance.addAndGet(entry.points);
+                last = Math.max(last, entry.sequence);
+            }
+        } catch (NoSuchFileException e) {
+            // No history yet
+        }
+        sequence.set(last);
+    }
+
+    /**
+     * The customer's journal entries, oldest first.
+     */
+    List<Entry> history(String customer) throws IOException {
+        flush();
+        List<Entry> entries = new ArrayList<>();
+        String key = key(customer);
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null;) {
+                Entry entry = Entry.parse(line);
+                if (entry != null && key(entry.customer).equals(key)) {
+                    entries.add(entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No history yet
+        }
+        entries.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        return entries;
+    }
+
+    private static String key(String customer) {
+        return customer == null ? "" : customer.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Earning {
+
+        final Order order;
+        final long points;
+
+        Earning(Order order, long points) {
+            this.order = order;
+            this.points = points;
+        }
+    }
+
+    private static final class Account {
+
+        final String name;
+        final AtomicLong balance = new AtomicLong();
+
+        Account(String name) {
+            this.name = name;
+        }
+    }
+
+    static final class Entry {
+
+        final long sequence;
+        final long timestamp;
+        final Kind kind;
+        final int orderId;
+        final long points;
+        final long balance;
+        final String customer;
+
+        Entry(long sequence, long timestamp, Kind kind, int orderId, long points, long balance, String customer) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.orderId = orderId;
+            this.points = points;
+            this.balance = balance;
+            this.customer = customer;
+        }
+
+        void appendTo(StringBuilder text) {
+            text.append(sequence).append('\t').append(timestamp).append('\t').append(kind).append('\t')
+                    .append(orderId).append('\t').append(points).append('\t').append(balance).append('\t')
+                    .append(customer.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ')).append('\n');
+        }
+
+        // Null for a line that is not a complete entry, e.g. one cut short by a crash
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", 7);
+            if (fields.length < 7) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Kind.valueOf(fields[2]),
+                        Integer.parseInt(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields[6]);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package gui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * The pizza menu on the Shop screen, built from {@link MenuItem#load()}.
+ *
+ * A JList only paints the cells inside its viewport, through one shared
+ * renderer, so a long menu costs nothing until it is scrolled to. Pictures
+ * are scaled down in the background the first time their cell is shown;
+ * until then the cell shows its name on a blank tile.
+ */
+class MenuGrid extends JList<MenuItem> {
+
+    static final int CELL_WIDTH = 130;
+    static final int CELL_HEIGHT = 320;
+    static final int THUMBNAIL_WIDTH = 120;
+    static final int THUMBNAIL_HEIGHT = 285;
+
+    private final Thumbnails thumbnails = new Thumbnails(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, 128);
+
+    public MenuGrid() {
+        this(PizzaCatalog.menu());
+    }
+
+    MenuGrid(List<MenuItem> items) {
+        DefaultListModel<MenuItem> model = new DefaultListModel<>();
+        for (MenuItem item : items) {
+            model.addElement(item);
+        }
+        setModel(model);
+        // Fixed cells, so the list never measures items it is not showing
+        setFixedCellWidth(CELL_WIDTH);
+        setFixedCellHeight(CELL_HEIGHT);
+        setLayoutOrientation(JList.VERTICAL_WRAP);
+        setVisibleRowCount(1);
+        setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        setOpaque(false);
+        setCursor(new Cursor(Cursor.HAND_CURSOR));
+        setCellRenderer(new Cell());
+    }
+
+    MenuItem getItem(int index) {
+        return getModel().getElementAt(index);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        // Let the panel background show through the scroll pane
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setOpaque(false);
+            if (getParent().getParent() instanceof JScrollPane) {
+                ((JScrollPane) getParent().getParent()).setOpaque(false);
+            }
+        }
+    }
+
+    private void repaintCell(int index) {
+        if (index < getModel().getSize()) {
+            Rectangle bounds = getCellBounds(index, index);
+            if (bounds != null) {
+                repaint(bounds);
+            }
+        }
+    }
+
+    private final class Cell extends JPanel implements ListCellRenderer<MenuItem> {
+
+        private final JLabel picture = new JLabel();
+        private final JLabel name = new JLabel();
+
+        Cell() {
+            super(new BorderLayout());
+            setOpaque(false);
+            picture.setHorizontalAlignment(SwingConstants.CENTER);
+            name.setFont(new Font("Segoe UI", Font.BOLD, 14));
+            name.setHorizontalAlignment(SwingConstants.CENTER);
+            name.setPreferredSize(new Dimension(THUMBNAIL_WIDTH, 30));
+            add(picture, BorderLayout.CENTER);
+            add(name, BorderLayout.SOUTH);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends MenuItem> list, MenuItem item, int index,
+                boolean selected, boolean focused) {
+            picture.setIcon(thumbnails.get(item.getImage(), () -> repaintCell(index)));
+            name.setText(item.getName());
+            name.setForeground(selected ? new Color(255, 204, 0) : Color.WHITE);
+            setBorder(selected
+                    ? BorderFactory.createLineBorder(new Color(255, 204, 0), 2, true)
+                    : BorderFactory.createEmptyBorder(2, 2, 2, 2));
+            return this;
+        }
+    }
+}
+
+/**
+ * One pizza on the menu: what the Shop shows and what it puts in the cart.
+ */
+class MenuItem {
+
+    static final String RESOURCE = "/resources/menu.txt";
+
+    private final String name;
+    private final String signatureTopping;
+    private final String image;
+
+    MenuItem(String name, String signatureTopping, String image) {
+        this.name = name;
+        this.signatureTopping = signatureTopping;
+        this.image = image;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSignatureTopping() {
+        return signatureTopping;
+    }
+
+    /**
+     * Classpath resource of the picture, or null for none.
+     */
+    public String getImage() {
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * The menu in {@link #RESOURCE}, one {@code name;topping;image} per line,
+     * or the four original pizzas without pictures if it cannot be read.
+     * PizzaCatalog is built from this; everything else should use
+     * {@link PizzaCatalog#menu()}.
+     */
+    static List<MenuItem> load() {
+        try (InputStream in = MenuItem.class.getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                List<MenuItem> items = parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+                if (!items.isEmpty()) {
+                    return items;
+                }
+                Log.warn("The menu %s has no pizzas, using the built-in one", RESOURCE);
+            }
+        } catch (IOException e) {
+            Log.error("Could not read the menu %s", RESOURCE, e);
+        }
+        return Collections.unmodifiableList(Arrays.asList(
+                new MenuItem("Chicken Pizza", "Chicken", null),
+                new MenuItem("Veggie Pizza", "Vegetable", null),
+                new MenuItem("Pepperoni Pizza", "Pepperoni", null),
+                new MenuItem("Margherita Pizza", "Margherita", null)));
+    }
+
+    /**
+     * Lines without a name or a signature topping, and repeated names, are
+     * left out with a warning.
+     */
+    static List<MenuItem> parse(BufferedReader reader) throws IOException {
+        List<MenuItem> items = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (String line; (line = reader.readLine()) != null;) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(";", -1);
+            String name = fields[0].trim();
+            String topping = fields.length > 1 ? fields[1].trim() : "";
+            if (name.isEmpty() || topping.isEmpty()) {
+                Log.warn("Left out a menu line without a name or signature topping: %s", line);
+                continue;
+            }
+            if (!names.add(name)) {
+                Log.warn("Left out a second menu line for %s", name);
+                continue;
+            }
+            String image = fields.length > 2 && !fields[2].trim().isEmpty() ? fields[2].trim() : null;
+            items.add(new MenuItem(name, topping, image));
+        }
+        return Collections.unmodifiableList(items);
+    }
+}
+
+/**
+ * Scaled-down menu pictures, made on a background thread when first asked
+ * for. Only the most recently used are kept, so memory does not grow with
+ * the size of the menu.
+ */
+final class Thumbnails {
+
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "menu-thumbnails");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final int width;
+    private final int height;
+    private final Icon placeholder;
+    private final Map<String, Icon> cache;
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    Thumbnails(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.placeholder = new ImageIcon(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, Icon>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * @return the thumbnail of {@code resource} if it is ready, otherwise a
+     *         blank one while it is made; {@code whenLoaded} then runs on the
+     *         EDT
+     */
+    Icon get(String resource, Runnable whenLoaded) {
+        if (resource == null) {
+            return placeholder;
+        }
+        Icon icon = cache.get(resource);
+        if (icon != null) {
+            return icon;
+        }
+        if (loading.add(resource)) {
+            LOADER.execute(() -> {
+                try {
+                    cache.put(resource, load(resource));
+                } catch (IOException | RuntimeException e) {
+                    Log.warn("Could not load the thumbnail %s", resource, e);
+                    cache.put(resource, placeholder);
+                } finally {
+                    loading.remove(resource);
+                }
+                SwingUtilities.invokeLater(whenLoaded);
+            });
+        }
+        return placeholder;
+    }
+
+    private Icon load(String resource) throws IOException {
+        URL url = Thumbnails.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("No menu picture " + resource);
+        }
+        BufferedImage source = ImageIO.read(url);
+        if (source == null) {
+            throw new IOException("Unreadable menu picture " + resource);
+        }
+        double scale = Math.min(1.0, Math.min((double) width / source.getWidth(), (double) height / source.getHeight()));
+        int w = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return new ImageIcon(scaled);
+    }
+}
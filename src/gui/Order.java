@@ -0,0 +1,217 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A customer's checked-out cart, handed from the UI to the order pipeline.
+ *
+ * The order id is assigned by the OrderStateTable once the order manager
+ * confirms the order; until then it is 0.
+ */
+class Order {
+
+    private final String customerName;
+    private final List<OrderLine> lines;
+    private volatile int orderId;
+    private volatile long predictedReadyAt;
+    private volatile long quotedWaitMillis = -1;
+    private volatile String paymentReference;
+    private volatile long paymentId;
+    private volatile long redeemedPoints;
+    private volatile long pickupAt;
+    private boolean pointsReturned;
+    private boolean paymentReversed;
+
+    public Order(String customerName, List<OrderLine> lines) {
+        this.customerName = customerName;
+        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public List<OrderLine> getLines() {
+        return lines;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(int orderId) {
+        this.orderId = orderId;
+    }
+
+    /**
+     * The hand-over time predicted when the order was confirmed, in epoch
+     * millis; 0 until then.
+     */
+    public long getPredictedReadyAt() {
+        return predictedReadyAt;
+    }
+
+    public void setPredictedReadyAt(long predictedReadyAt) {
+        this.predictedReadyAt = predictedReadyAt;
+    }
+
+    /**
+     * The wait quoted when the kitchen admitted the order, or -1 if none.
+     */
+    public long getQuotedWaitMillis() {
+        return quotedWaitMillis;
+    }
+
+    public void setQuotedWaitMillis(long quotedWaitMillis) {
+        this.quotedWaitMillis = quotedWaitMillis;
+    }
+
+    /**
+     * The processor's authorization code once payment is approved.
+     */
+    public String getPaymentReference() {
+        return paymentReference;
+    }
+
+    public void setPaymentReference(String paymentReference) {
+        this.paymentReference = paymentReference;
+    }
+
+    /**
+     * The PaymentStage's id for the approved authorization, or 0 if none.
+     */
+    public long getPaymentId() {
+        return paymentId;
+    }
+
+    public void setPaymentId(long paymentId) {
+        this.paymentId = paymentId;
+    }
+
+    /**
+     * @return true the first time only, so a payment is voided once
+     */
+    synchronized boolean reversePayment() {
+        if (paymentReversed) {
+            return false;
+        }
+        paymentReversed = true;
+        return true;
+    }
+
+    /**
+     * Loyalty points put towards this order at checkout.
+     */
+    public long getRedeemedPoints() {
+        return redeemedPoints;
+    }
+
+    public void setRedeemedPoints(long redeemedPoints) {
+        this.redeemedPoints = redeemedPoints;
+    }
+
+    /**
+     * The booked pickup time in epoch millis, or 0 for as soon as possible.
+     */
+    public long getPickupAt() {
+        return pickupAt;
+    }
+
+    public void setPickupAt(long pickupAt) {
+        this.pickupAt = pickupAt;
+    }
+
+    /**
+     * @return true the first time only, so redeemed points go back once
+     */
+    synchronized boolean returnRedeemedPoints() {
+        if (pointsReturned) {
+            return false;
+        }
+        pointsReturned = true;
+        return true;
+    }
+
+    /**
+     * What is left to pay after loyalty points, in cents.
+     */
+    public long getAmountDueCents() {
+        return Math.max(0, OrderEvent.toCents(getTotal()) - redeemedPoints * LoyaltyLedger.POINT_VALUE_CENTS);
+    }
+
+    public int getItemCount() {
+        int items = 0;
+        for (OrderLine line : lines) {
+            items += line.getQuantity();
+        }
+        return items;
+    }
+
+    public double getTotal() {
+        double total = 0.0;
+        for (OrderLine line : lines) {
+            total += line.getTotal();
+        }
+        return total;
+    }
+
+    /**
+     * The text shown to the order manager for confirmation.
+     */
+    public String describe() {
+        StringBuilder allRowsData = new StringBuilder();
+        for (OrderLine line : lines) {
+            allRowsData.append(line.describe()).append("\n\n");
+        }
+        return allRowsData.toString() + "\nTotal Price of the Full Order : Rs " + Double.toString(getTotal());
+    }
+}
+
+class OrderLine {
+
+    private final String type;
+    private final String size;
+    private final List<String> toppings;
+    private final int quantity;
+    private final double unitPrice;
+
+    public OrderLine(String type, String size, List<String> toppings, int quantity, double unitPrice) {
+        this.type = type;
+        this.size = size;
+        this.toppings = Collections.unmodifiableList(new ArrayList<>(toppings));
+        this.quantity = quantity;
+        this.unitPrice = unitPrice;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public List<String> getToppings() {
+        return toppings;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getUnitPrice() {
+        return unitPrice;
+    }
+
+    public double getTotal() {
+        return unitPrice * quantity;
+    }
+
+    public String describe() {
+        return "Pizza: " + type + ", \nSize: " + size + ", \nToppings: "
+                + String.join(", ", toppings) + " \nQuantity: " + quantity + ", \nTotal Price : Rs "
+                + Double.toString(getTotal());
+    }
+}
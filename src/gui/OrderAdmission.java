@@ -0,0 +1,194 @@
+package gui;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded intake in front of the order pipeline.
+ *
+ * Every order is judged against the current kitchen queue depth and the
+ * measured completion rate before it is sent. It is accepted with a quoted
+ * wait, deferred to a later slot, or rejected, so latency stays bounded when
+ * the kitchen is backed up instead of growing with the queue.
+ */
+final class OrderAdmission implements OrderStateTable.Listener {
+
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final long RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static OrderAdmission shared;
+
+    static synchronized OrderAdmission shared() {
+        if (shared == null) {
+            shared = new OrderAdmission(OrderStateTable.shared(), AdmissionPolicy.fromSystemProperties(),
+                    Double.parseDouble(System.getProperty("syzygy.admission.nominalOrdersPerMinute", "2")) / 60.0);
+            OrderStateTable.shared().addListener(shared);
+        }
+        return shared;
+    }
+
+    private final OrderStateTable table;
+    private final AdmissionPolicy policy;
+    private final double nominalRatePerSecond;
+    private final AtomicInteger intake = new AtomicInteger();
+    private final LongAdder completions = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private long sampledAt = System.nanoTime();
+    private long sampledCompletions;
+    private volatile double ratePerSecond = -1;
+
+    OrderAdmission(OrderStateTable table, AdmissionPolicy policy, double nominalRatePerSecond) {
+        this.table = table;
+        this.policy = policy;
+        this.nominalRatePerSecond = nominalRatePerSecond;
+    }
+
+    @Override
+    public void stateChanged(int orderId, OrderState from, OrderState to) {
+        if (to == OrderState.HANDED_OVER) {
+            completions.increment();
+        }
+    }
+
+    /**
+     * Decides on one order. An accepted order holds an intake place until
+     * {@link #finished()} is called for it.
+     */
+    AdmissionDecision admit() {
+        int inIntake = intake.incrementAndGet();
+        long depth = Math.max(table.inFlight(), 0) + inIntake - 1;
+        double rate = serviceRate();
+        long quotedWaitMillis = (long) ((depth + 1) / rate * 1000);
+        AdmissionDecision decision = policy.decide(depth, rate, quotedWaitMillis);
+        switch (decision.getOutcome()) {
+            case ACCEPT:
+                accepted.increment();
+                return decision;
+            case DEFER:
+                deferred.increment();
+                break;
+            default:
+                rejected.increment();
+                break;
+        }
+        intake.decrementAndGet();
+        return decision;
+    }
+
+    void finished() {
+        intake.decrementAndGet();
+    }
+
+    /**
+     * Completed orders per second, smoothed; the nominal rate until enough
+     * completions have been seen.
+     */
+    double serviceRate() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (now - sampledAt >= RATE_SAMPLE_NANOS) {
+                long total = completions.sum();
+                double sample = (total - sampledCompletions) / ((now - sampledAt) / 1e9);
+                ratePerSecond = ratePerSecond < 0 ? sample : RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * ratePerSecond;
+                sampledAt = now;
+                sampledCompletions = total;
+            }
+        }
+        double rate = ratePerSecond;
+        return rate > nominalRatePerSecond ? rate : nominalRatePerSecond;
+    }
+
+    int intakeDepth() {
+        return intake.get();
+    }
+
+    long acceptedCount() {
+        return accepted.sum();
+    }
+
+    long deferredCount() {
+        return deferred.sum();
+    }
+
+    long rejectedCount() {
+        return rejected.sum();
+    }
+}
+
+class AdmissionDecision {
+
+    enum Outcome {
+        ACCEPT, DEFER, REJECT
+    }
+
+    private final Outcome outcome;
+    private final long quotedWaitMillis;
+    private final long retryAfterMillis;
+
+    public AdmissionDecision(Outcome outcome, long quotedWaitMillis, long retryAfterMillis) {
+        this.outcome = outcome;
+        this.quotedWaitMillis = quotedWaitMillis;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public long getQuotedWaitMillis() {
+        return quotedWaitMillis;
+    }
+
+    /**
+     * For DEFER, how long to hold the order before offering it again.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
+
+interface AdmissionPolicy {
+
+    AdmissionDecision decide(long queueDepth, double ratePerSecond, long quotedWaitMillis);
+
+    /**
+     * Accept while the quoted wait is within {@code syzygy.admission.maxWaitMinutes}
+     * (default 20), defer while it is within {@code maxDeferMinutes} (default
+     * 60), and reject beyond that or once {@code maxInFlight} (default 200)
+     * orders are queued.
+     */
+    static AdmissionPolicy fromSystemProperties() {
+        return new ThresholdAdmissionPolicy(
+                TimeUnit.MINUTES.toMillis(Long.getLong("syzygy.admission.maxWaitMinutes", 20)),
+                TimeUnit.MINUTES.toMillis(Long.getLong("syzygy.admission.maxDeferMinutes", 60)),
+                Long.getLong("syzygy.admission.maxInFlight", 200));
+    }
+}
+
+class ThresholdAdmissionPolicy implements AdmissionPolicy {
+
+    private final long maxWaitMillis;
+    private final long maxDeferMillis;
+    private final long maxInFlight;
+
+    public ThresholdAdmissionPolicy(long maxWaitMillis, long maxDeferMillis, long maxInFlight) {
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxDeferMillis = maxDeferMillis;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public AdmissionDecision decide(long queueDepth, double ratePerSecond, long quotedWaitMillis) {
+        if (queueDepth >= maxInFlight || quotedWaitMillis > maxDeferMillis) {
+            return new AdmissionDecision(AdmissionDecision.Outcome.REJECT, quotedWaitMillis, 0);
+        }
+        if (quotedWaitMillis > maxWaitMillis) {
+            long retryAfter = Math.max(TimeUnit.MINUTES.toMillis(1), quotedWaitMillis - maxWaitMillis);
+            return new AdmissionDecision(AdmissionDecision.Outcome.DEFER, quotedWaitMillis, retryAfter);
+        }
+        return new AdmissionDecision(AdmissionDecision.Outcome.ACCEPT, quotedWaitMillis, 0);
+    }
+}
@@ -0,0 +1,400 @@
+package gui;
+
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process publish/subscribe bus for order events, built on a single
+ * pre-allocated ring of mutable event slots in the style of the Disruptor.
+ *
+ * Publishers claim a sequence with one atomic increment and fill the slot in
+ * place, so publishing never allocates and never waits for a subscriber. Each
+ * subscriber runs on its own thread with its own cursor and drains everything
+ * published since its last pass as one batch. A subscriber that falls a whole
+ * ring behind skips ahead to the oldest surviving event and counts what it
+ * missed instead of holding the publishers back. Subscribers that keep the
+ * books (points, sales, deliveries) cannot afford that and subscribe with
+ * {@link #subscribeGating}: publishers wait for them instead of lapping them.
+ */
+final class OrderEventBus {
+
+    static final int DEFAULT_CAPACITY = 1 << 13;
+
+    private static final OrderEventBus SHARED = new OrderEventBus(DEFAULT_CAPACITY);
+
+    static OrderEventBus shared() {
+        return SHARED;
+    }
+
+    interface Handler {
+
+        void onEvent(OrderEvent event, long sequence, boolean endOfBatch) throws Exception;
+    }
+
+    private static final long WRITING = -1L;
+
+    private final int mask;
+    private final Slot[] ring;
+    private final AtomicLong claimed = new AtomicLong();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final List<Subscriber> gates = new CopyOnWriteArrayList<>();
+
+    OrderEventBus(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    void publish(OrderEvent.Type type, int orderId) {
+        publish(type, orderId, 0L, null);
+    }
+
+    /**
+     * Publishes an event carrying the whole order, for consumers that need
+     * its lines.
+     */
+    void publish(OrderEvent.Type type, Order order) {
+        publish(type, order.getOrderId(), OrderEvent.toCents(order.getTotal()), order.getCustomerName(), order);
+    }
+
+    void publish(OrderEvent.Type type, int orderId, long value, String text) {
+        publish(type, orderId, value, text, null);
+    }
+
+    private void publish(OrderEvent.Type type, int orderId, long value, String text, Order order) {
+        long sequence = claimed.getAndIncrement();
+        for (Subscriber gate : gates) {
+            gate.awaitRoomFor(sequence);
+        }
+        Slot slot = ring[(int) (sequence & mask)];
+        slot.sequence = WRITING;
+        VarHandle.storeStoreFence();
+        slot.event.set(type, orderId, value, text, order, System.currentTimeMillis());
+        slot.sequence = sequence;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sleeping) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+    }
+
+    /**
+     * Sequence of the most recently claimed event, or -1 if none yet.
+     */
+    long lastSequence() {
+        return claimed.get() - 1;
+    }
+
+    /**
+     * Starts a consumer thread that sees every event published from now on.
+     */
+    Subscription subscribe(String name, Handler handler) {
+        Subscriber subscriber = new Subscriber(name, handler, claimed.get(), false);
+        subscribers.add(subscriber);
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    /**
+     * Like {@link #subscribe}, but the handler never misses an event: a
+     * publisher that would lap it waits until it has caught up. For
+     * handlers that must see every event and are quick, never ones that
+     * can block on the user.
+     */
+    Subscription subscribeGating(String name, Handler handler) {
+        Subscriber subscriber = new Subscriber(name, handler, claimed.get(), true);
+        gates.add(subscriber);
+        subscribers.add(subscriber);
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    interface Subscription {
+
+        String name();
+
+        /**
+         * Sequence of the last event handed to the handler, or one less than
+         * the first sequence this subscription saw.
+         */
+        long processedSequence();
+
+        long droppedEvents();
+
+        /**
+         * Waits until the handler has processed {@code sequence}.
+         *
+         * @return false if the wait timed out
+         */
+        boolean awaitProcessed(long sequence, long timeout, TimeUnit unit) throws InterruptedException;
+
+        void close();
+    }
+
+    private static final class Slot {
+
+        final OrderEvent event = new OrderEvent();
+        volatile long sequence = WRITING;
+    }
+
+    private final class Subscriber implements Subscription, Runnable {
+
+        private final String name;
+        private final Handler handler;
+        private final boolean gating;
+        private final Thread thread;
+        private final OrderEvent copy = new OrderEvent();
+        private final LongAdder dropped = new LongAdder();
+        private volatile long processed;
+        private volatile boolean sleeping;
+        private volatile boolean running = true;
+
+        Subscriber(String name, Handler handler, long start, boolean gating) {
+            this.name = name;
+            this.handler = handler;
+            this.gating = gating;
+            this.processed = start - 1;
+            this.thread = new Thread(this, "order-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = processed + 1;
+            int idleRounds = 0;
+            while (running) {
+                long available = claimed.get();
+                if (next >= available) {
+                    idle(next, idleRounds++);
+                    continue;
+                }
+                idleRounds = 0;
+                // Publishers wait for a gating subscriber, so for it a claim that far ahead is not a lap
+                if (!gating && available - next > capacity()) {
+                    next = skipTo(next, available - capacity());
+                }
+                while (next < available) {
+                    Slot slot = ring[(int) (next & mask)];
+                    long seen = slot.sequence;
+                    if (seen != next) {
+                        if (seen > next || (!gating && claimed.get() - next > capacity())) {
+                            // Lapped by the publishers while reading
+                            next = skipTo(next, claimed.get() - capacity());
+                            break;
+                        }
+                        // Claimed but not yet written; pick it up on the next pass
+                        Thread.onSpinWait();
+                        break;
+                    }
+                    copy.copyFrom(slot.event);
+                    VarHandle.loadLoadFence();
+                    if (slot.sequence != next) {
+                        continue;
+                    }
+                    dispatch(next, next == available - 1);
+                    processed = next;
+                    next++;
+                }
+            }
+        }
+
+        private void dispatch(long sequence, boolean endOfBatch) {
+            try {
+                handler.onEvent(copy, sequence, endOfBatch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Exception e) {
+                Log.error("Subscriber %s failed", name, e);
+            }
+        }
+
+        private long skipTo(long next, long oldest) {
+            if (oldest > next) {
+                dropped.add(oldest - next);
+                processed = oldest - 1;
+                return oldest;
+            }
+            return next;
+        }
+
+        // Publisher side: until the slot for sequence no longer holds an event this subscriber has yet to see
+        void awaitRoomFor(long sequence) {
+            if (thread == Thread.currentThread()) {
+                // Publishing from its own handler; waiting for itself would never end
+                return;
+            }
+            for (int rounds = 0; sequence - capacity() > processed && running; rounds++) {
+                if (rounds < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+            }
+        }
+
+        // Spin, then yield, then park until a publisher unparks us
+        private void idle(long next, int rounds) {
+            if (rounds < 100) {
+                Thread.onSpinWait();
+                return;
+            }
+            if (rounds < 110) {
+                Thread.yield();
+                return;
+            }
+            sleeping = true;
+            if (claimed.get() <= next && running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+            }
+            sleeping = false;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public long processedSequence() {
+            return processed;
+        }
+
+        @Override
+        public long droppedEvents() {
+            return dropped.sum();
+        }
+
+        @Override
+        public boolean awaitProcessed(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (processed < sequence) {
+                if (!running || System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            running = false;
+            subscribers.remove(this);
+            gates.remove(this);
+            LockSupport.unpark(thread);
+        }
+    }
+}
+
+/**
+ * One slot of the event ring. Instances are reused, so handlers must copy
+ * anything they want to keep beyond {@code onEvent}.
+ */
+final class OrderEvent {
+
+    enum Type {
+        CART_ITEM_ADDED,
+        CART_ITEM_REMOVED,
+        ITEM_PRICED,
+        ORDER_ADMITTED,
+        ORDER_DEFERRED,
+        ORDER_REJECTED,
+        ORDER_SENT,
+        ORDER_FORWARDED,
+        ORDER_CONFIRMED,
+        ORDER_DECLINED,
+        ORDER_ETA,
+        STEP_COMPLETED,
+        ORDER_FAILED,
+        ORDER_COMPLETED,
+        ORDER_DISPATCHED,
+        ORDER_BOOKED,
+        STOCK_LOW,
+        STOCK_RESTORED
+    }
+
+    private Type type;
+    private int orderId;
+    private long value;
+    private String text;
+    private Order order;
+    private long timestamp;
+
+    void set(Type type, int orderId, long value, String text, Order order, long timestamp) {
+        this.type = type;
+        this.orderId = orderId;
+        this.value = value;
+        this.text = text;
+        this.order = order;
+        this.timestamp = timestamp;
+    }
+
+    void copyFrom(OrderEvent other) {
+        set(other.type, other.orderId, other.value, other.text, other.order, other.timestamp);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Event specific number: an amount in cents for pricing and orders, the
+     * reached OrderState ordinal for STEP_COMPLETED, drops in the run for
+     * ORDER_DISPATCHED, portions left for stock events, milliseconds for the
+     * quoted wait of ORDER_ADMITTED and ORDER_REJECTED and the hold time of
+     * ORDER_DEFERRED, the predicted hand-over time in epoch millis for
+     * ORDER_ETA, the booked pickup time in epoch millis for ORDER_BOOKED.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Event specific text, e.g. the customer name, pizza type or ingredient.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * The order itself for order-level events published with one, else null.
+     */
+    public Order getOrder() {
+        return order;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    static long toCents(double rupees) {
+        return Math.round(rupees * 100);
+    }
+
+    @Override
+    public String toString() {
+        return type + " order=" + orderId + " value=" + value + (text != null ? " " + text : "");
+    }
+}
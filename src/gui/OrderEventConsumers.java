@@ -0,0 +1,241 @@
+package gui;
+
+import java.awt.GraphicsEnvironment;
+import java.lang.reflect.InvocationTargetException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * The standard subscribers of the OrderEventBus. Each runs on its own bus
+ * thread, so a slow one (a modal notification, a full disk) only delays
+ * itself.
+ */
+final class OrderEventConsumers {
+
+    private static OrderEventBus.Subscription swing;
+    private static OrderMetrics metrics;
+    private static boolean accounting;
+
+    private OrderEventConsumers() {}
+
+    /**
+     * Subscribes metrics and logging, the books (sales, loyalty, customers
+     * and delivery), plus the Swing notifier unless the JVM is headless.
+     * Safe to call more than once.
+     */
+    static synchronized void install() {
+        if (accounting) {
+            return;
+        }
+        installMetrics();
+        accounting = true;
+        OrderEventBus bus = OrderEventBus.shared();
+        SalesAnalytics.shared();
+        LoyaltyLedger.shared();
+        CustomerIndex.shared();
+        DispatchEngine.shared();
+        if (!GraphicsEnvironment.isHeadless()) {
+            swing = bus.subscribe("swing", new SwingOrderNotifier());
+        }
+    }
+
+    /**
+     * Subscribes metrics and logging only. The till that took an order keeps
+     * its books, so a hub cooking it for them must not count it again.
+     */
+    static synchronized void installMetrics() {
+        if (metrics != null) {
+            return;
+        }
+        OrderEventBus bus = OrderEventBus.shared();
+        metrics = new OrderMetrics();
+        bus.subscribe("metrics", metrics);
+        bus.subscribe("log", new OrderLog());
+    }
+
+    static synchronized OrderMetrics metrics() {
+        installMetrics();
+        return metrics;
+    }
+
+    /**
+     * Blocks until every notification published so far has been shown, so a
+     * dialog raised from the order path appears after them rather than on
+     * top of them. Returns at once on the EDT, where waiting would deadlock.
+     */
+    static void awaitNotifications() {
+        OrderEventBus.Subscription subscription;
+        synchronized (OrderEventConsumers.class) {
+            subscription = swing;
+        }
+        if (subscription == null || SwingUtilities.isEventDispatchThread()) {
+            return;
+        }
+        try {
+            subscription.awaitProcessed(OrderEventBus.shared().lastSequence(), 60, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void onEdt(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            Log.error("Task on the EDT failed", e.getCause());
+        }
+    }
+}
+
+// Shows the customer-facing messages one at a time, in publication order
+class SwingOrderNotifier implements OrderEventBus.Handler {
+
+    // Predicted ready times of orders not yet accepted, by order id, as orders overlap
+    private final Map<Integer, Long> readyAtMillis = new HashMap<>();
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case ORDER_SENT:
+                notify(event.getText() + " : Sending the Pizza Order..." + quote(event.getOrder()));
+                break;
+            case ORDER_DEFERRED:
+                notify("The kitchen is busy. Your Pizza Order will be sent in about "
+                        + Math.max(1, TimeUnit.MILLISECONDS.toMinutes(event.getValue())) + " min.");
+                break;
+            case ORDER_REJECTED:
+                message("Sorry, the kitchen is full right now.\nYour Pizzas are back in the Order List, please try again later.",
+                        "Warning", JOptionPane.WARNING_MESSAGE);
+                break;
+            case ORDER_FORWARDED:
+                notify("Syzygy App : Finding and Forwarding the Pizza Order...");
+                break;
+            case ORDER_DECLINED:
+                message("OK !  Add a new Pizza Order.", "Information", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            case ORDER_ETA:
+                readyAtMillis.put(event.getOrderId(), event.getValue());
+                break;
+            case STEP_COMPLETED:
+                stepCompleted(event.getOrderId(), OrderState.of((int) event.getValue()));
+                break;
+            case ORDER_FAILED:
+                readyAtMillis.remove(event.getOrderId());
+                message("Order Error...", "Warning", JOptionPane.WARNING_MESSAGE);
+                break;
+            case ORDER_COMPLETED:
+                readyAtMillis.remove(event.getOrderId());
+                message("Your Pizza Order is successful!\nGet it and Enjoy!", "Information", JOptionPane.INFORMATION_MESSAGE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private String quote(Order order) {
+        if (order == null || order.getQuotedWaitMillis() < 0) {
+            return "";
+        }
+        long minutes = Math.max(1, TimeUnit.MILLISECONDS.toMinutes(order.getQuotedWaitMillis()));
+        return "\nEstimated wait : about " + minutes + " min";
+    }
+
+    private String eta(int orderId) {
+        Long readyAt = readyAtMillis.remove(orderId);
+        if (readyAt == null || readyAt == 0) {
+            return "";
+        }
+        return "\nExpected to be ready at " + new SimpleDateFormat("hh:mm a").format(new Date(readyAt));
+    }
+
+    private void stepCompleted(int orderId, OrderState reached) {
+        switch (reached) {
+            case ACCEPTED:
+                notify("Your Pizza Order is accepted!" + eta(orderId));
+                break;
+            case COOKED:
+                notify("Your Pizza is being cooked.");
+                break;
+            case PACKED:
+                notify("Your Pizza is being packed.");
+                break;
+            case HANDED_OVER:
+                notify("Your Pizza Order is handed over to the driver for delivery.");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void notify(String message) {
+        OrderEventConsumers.onEdt(() -> Shop.showNotification(message));
+    }
+
+    private void message(String message, String title, int messageType) {
+        OrderEventConsumers.onEdt(() -> JOptionPane.showMessageDialog(null, message, title, messageType));
+    }
+}
+
+// Asks the order manager on screen, after any notifications still queued
+class SwingOrderApproval implements OrderApproval {
+
+    @Override
+    public boolean approve(Order order) {
+        OrderEventConsumers.awaitNotifications();
+        int[] option = {JOptionPane.NO_OPTION};
+        OrderEventConsumers.onEdt(() -> option[0] = JOptionPane.showConfirmDialog(null, "Order Manager : Can you confirm this Pizza Order?\n\n"
+                + order.describe(), "Confirmation", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE));
+        return option[0] == JOptionPane.YES_OPTION;
+    }
+}
+
+class OrderMetrics implements OrderEventBus.Handler {
+
+    private final LongAdder[] counts = new LongAdder[OrderEvent.Type.values().length];
+    private final LongAdder confirmedCents = new LongAdder();
+
+    OrderMetrics() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        counts[event.getType().ordinal()].increment();
+        if (event.getType() == OrderEvent.Type.ORDER_CONFIRMED) {
+            confirmedCents.add(event.getValue());
+        }
+    }
+
+    long count(OrderEvent.Type type) {
+        return counts[type.ordinal()].sum();
+    }
+
+    double confirmedRevenue() {
+        return confirmedCents.sum() / 100.0;
+    }
+}
+
+class OrderLog implements OrderEventBus.Handler {
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        if (event.getType() != OrderEvent.Type.ITEM_PRICED) {
+            Log.shared().log(Log.Level.INFO, "#%d %s order=%d value=%d %s", event.getType().name(),
+                    event.getText() == null ? "" : event.getText(), sequence, event.getOrderId(), event.getValue(), null);
+        }
+    }
+}
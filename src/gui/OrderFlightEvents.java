@@ -0,0 +1,82 @@
+package gui;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the order lifecycle, so business latency
+ * can be lined up with GC, lock and I/O events in one recording.
+ *
+ * Call sites {@code begin()} an event, do the work, then fill it in and
+ * {@code commit()} only if {@code shouldCommit()}. While recording is off,
+ * that is a couple of checks the JIT folds away.
+ */
+@Category({"Syzygy", "Orders"})
+@StackTrace(false)
+abstract class OrderFlightEvent extends Event {
+
+    @Label("Order Id")
+    int orderId;
+
+    @Label("Item Count")
+    @Description("Pizzas, counting quantity")
+    int itemCount;
+
+    @Label("Value")
+    @Description("Rs")
+    double value;
+
+    void describe(Order order) {
+        orderId = order.getOrderId();
+        itemCount = order.getItemCount();
+        value = order.getTotal();
+    }
+}
+
+@Name("syzygy.CartItemAdded")
+@Label("Cart Item Added")
+class CartItemAddedEvent extends OrderFlightEvent {
+
+    @Label("Pizza")
+    String pizza;
+}
+
+@Name("syzygy.CartItemRemoved")
+@Label("Cart Item Removed")
+class CartItemRemovedEvent extends OrderFlightEvent {
+
+    @Label("Pizza")
+    String pizza;
+}
+
+@Name("syzygy.Checkout")
+@Label("Checkout")
+class CheckoutEvent extends OrderFlightEvent {
+
+    @Label("Customer")
+    String customer;
+}
+
+@Name("syzygy.FindOrder")
+@Label("Find Order")
+@Description("Forwarding an order to the kitchen, including approval")
+class FindOrderEvent extends OrderFlightEvent {
+
+    @Label("Approved")
+    boolean approved;
+}
+
+@Name("syzygy.OrderStep")
+@Label("Order Step")
+class OrderStepEvent extends OrderFlightEvent {
+
+    @Label("Step")
+    String step;
+
+    @Label("Reached")
+    String reached;
+}
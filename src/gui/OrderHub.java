@@ -0,0 +1,367 @@
+package gui;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one kitchen that several till terminals share.
+ *
+ * Terminals connect over TCP with the small binary protocol in
+ * {@link HubProtocol} and may have any number of orders in flight on one
+ * connection. A single selector thread does all socket I/O; decoded orders
+ * go through admission and the order steps on one kitchen thread, exactly
+ * as a standalone till does, and replies are queued back to the selector,
+ * which writes everything pending for a connection in one go. Only metrics
+ * and the log listen to the hub's own events: the till that took an order
+ * keeps the books for it, sales, loyalty, customers and delivery, once the
+ * hub has accepted it.
+ */
+final class OrderHub implements AutoCloseable {
+
+    static final int DEFAULT_PORT = 7070;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService kitchen = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hub-kitchen");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final LongAdder orders = new LongAdder();
+    private final Thread io;
+    private volatile boolean running = true;
+
+    OrderHub(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        io = new Thread(this::run, "hub-io");
+    }
+
+    OrderHub start() {
+        io.start();
+        return this;
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    long orderCount() {
+        return orders.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            io.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        kitchen.shutdown();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+                for (Connection connection; (connection = ready.poll()) != null;) {
+                    connection.flush();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Order hub stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+                server.close();
+            } catch (IOException e) {
+                Log.warn("Could not close the order hub", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    // Kitchen thread
+    private void process(Connection connection, int requestId, Order order) {
+        HubReply reply;
+        try {
+            OrderManager orderManager = new OrderManager();
+            // Approval happens at the terminal before checkout
+            orderManager.setApproval(OrderApproval.AUTOMATIC);
+            Customer customer = new Customer(order.getCustomerName());
+            OrderMediator orderMediator = new OrderMediator(orderManager, customer);
+            orderManager.setOrderMediator(orderMediator);
+            customer.setOrderMediator(orderMediator);
+            AdmissionDecision decision = customer.sendOrder(order);
+            switch (decision.getOutcome()) {
+                case ACCEPT:
+                    // The order has been through the kitchen by now; a step may have failed it
+                    reply = OrderStateTable.shared().stateOf(order.getOrderId()) == OrderState.CANCELLED
+                            ? new HubReply(requestId, HubReply.Outcome.FAILED, order.getOrderId(), 0)
+                            : new HubReply(requestId, HubReply.Outcome.ACCEPTED, order.getOrderId(), order.getPredictedReadyAt());
+                    break;
+                case DEFER:
+                    reply = new HubReply(requestId, HubReply.Outcome.DEFERRED, 0, decision.getRetryAfterMillis());
+                    break;
+                default:
+                    reply = new HubReply(requestId, HubReply.Outcome.REJECTED, 0, decision.getQuotedWaitMillis());
+                    break;
+            }
+        } catch (RuntimeException e) {
+            Log.error("Could not place a hub order", e);
+            reply = new HubReply(requestId, HubReply.Outcome.FAILED, order.getOrderId(), 0);
+        }
+        orders.increment();
+        connection.replies.add(reply);
+        if (connection.scheduled.compareAndSet(false, true)) {
+            ready.add(connection);
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    private final class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(HubProtocol.MAX_FRAME * 2);
+        final ByteBuffer out = ByteBuffer.allocate(HubProtocol.MAX_FRAME);
+        final Queue<HubReply> replies = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    closeQuietly(key);
+                    return;
+                }
+                in.flip();
+                while (HubProtocol.hasFrame(in)) {
+                    int end = in.position() + Integer.BYTES + in.getInt();
+                    byte kind = in.get();
+                    int requestId = in.getInt();
+                    if (kind == HubProtocol.SUBMIT) {
+                        Order order = HubProtocol.readOrder(in);
+                        kitchen.execute(() -> process(this, requestId, order));
+                    }
+                    in.position(end);
+                }
+                in.compact();
+            } catch (IOException | RuntimeException e) {
+                // Broken peer or a malformed frame; drop the connection
+                closeQuietly(key);
+            }
+        }
+
+        // Selector thread: writes every queued reply, as far as the socket takes them
+        void flush() {
+            scheduled.set(false);
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                // out stays in fill mode between flushes
+                while (true) {
+                    HubReply reply;
+                    while (out.remaining() >= HubProtocol.REPLY_FRAME && (reply = replies.poll()) != null) {
+                        HubProtocol.writeReply(out, reply);
+                    }
+                    out.flip();
+                    channel.write(out);
+                    boolean drained = !out.hasRemaining();
+                    out.compact();
+                    if (!drained || replies.isEmpty()) {
+                        break;
+                    }
+                }
+                boolean pending = out.position() > 0 || !replies.isEmpty();
+                key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                closeQuietly(key);
+            }
+        }
+    }
+
+    /**
+     * Runs a hub on {@code args[0]} (default {@value #DEFAULT_PORT}) until
+     * the process is stopped.
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        OrderEventConsumers.installMetrics();
+        OrderHub hub = new OrderHub(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT).start();
+        System.out.println("Order hub listening on port " + hub.port());
+        hub.io.join();
+    }
+}
+
+/**
+ * Frames are a big-endian int length (of what follows), a kind byte and the
+ * request id the terminal chose. SUBMIT carries an order, REPLY the outcome
+ * for the request with that id; replies may arrive in any order.
+ */
+final class HubProtocol {
+
+    static final byte SUBMIT = 1;
+    static final byte REPLY = 2;
+
+    static final int MAX_FRAME = 1 << 16;
+    static final int REPLY_FRAME = Integer.BYTES + 1 + Integer.BYTES + 1 + Integer.BYTES + Long.BYTES;
+
+    private HubProtocol() {}
+
+    static boolean hasFrame(ByteBuffer in) throws IOException {
+        if (in.remaining() < Integer.BYTES) {
+            return false;
+        }
+        int length = in.getInt(in.position());
+        if (length < 1 + Integer.BYTES || length > MAX_FRAME - Integer.BYTES) {
+            throw new IOException("Bad frame length " + length);
+        }
+        return in.remaining() >= Integer.BYTES + length;
+    }
+
+    /**
+     * Writes a SUBMIT frame, or nothing if it does not fit in {@code out}.
+     *
+     * @return whether the frame was written
+     */
+    static boolean writeSubmit(ByteBuffer out, int requestId, Order order) {
+        int start = out.position();
+        try {
+            out.putInt(0).put(SUBMIT).putInt(requestId);
+            putString(out, order.getCustomerName());
+            List<OrderLine> lines = order.getLines();
+            out.putShort((short) lines.size());
+            for (OrderLine line : lines) {
+                putString(out, line.getType());
+                putString(out, line.getSize());
+                out.put((byte) line.getToppings().size());
+                for (String topping : line.getToppings()) {
+                    putString(out, topping);
+                }
+                out.putShort((short) line.getQuantity());
+                out.putLong(OrderEvent.toCents(line.getUnitPrice()));
+            }
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            return false;
+        }
+        out.putInt(start, out.position() - start - Integer.BYTES);
+        return true;
+    }
+
+    static Order readOrder(ByteBuffer in) {
+        String customer = getString(in);
+        int count = in.getShort();
+        List<OrderLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = getString(in);
+            String size = getString(in);
+            int toppingCount = in.get();
+            List<String> toppings = new ArrayList<>(toppingCount);
+            for (int t = 0; t < toppingCount; t++) {
+                toppings.add(getString(in));
+            }
+            int quantity = in.getShort();
+            // The terminal's price is only what it showed; the hub charges catalog prices
+            in.getLong();
+            lines.add(new OrderLine(type, size, toppings, quantity, PizzaCatalog.unitPrice(toppings.size())));
+        }
+        return new Order(customer, lines);
+    }
+
+    static void writeReply(ByteBuffer out, HubReply reply) {
+        out.putInt(REPLY_FRAME - Integer.BYTES).put(REPLY).putInt(reply.getRequestId())
+                .put((byte) reply.getOutcome().ordinal()).putInt(reply.getOrderId()).putLong(reply.getMillis());
+    }
+
+    static HubReply readReply(ByteBuffer in, int requestId) {
+        HubReply.Outcome outcome = HubReply.Outcome.values()[in.get()];
+        int orderId = in.getInt();
+        return new HubReply(requestId, outcome, orderId, in.getLong());
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xffff;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,560 @@
+package gui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk cart import for catering and corporate orders.
+ *
+ * The file is streamed through a fixed pair of buffers, so memory does not
+ * grow with its size. Parsed lines are handed off in batches that are
+ * validated against the PizzaCatalog, priced and reserved from the
+ * Inventory in parallel.
+ *
+ * CSV has one pizza per line: {@code type,size,quantity,extras}, where extras
+ * are separated by ';' and a header row is skipped. JSON is an array (or a
+ * stream) of objects with the same fields, extras as an array of strings.
+ */
+final class OrderImport {
+
+    static final int MAX_QUANTITY = 999;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BATCH_SIZE = 2048;
+
+    private OrderImport() {}
+
+    static Result read(Path file) throws IOException {
+        long start = System.nanoTime();
+        List<CompletableFuture<Priced>> batches = new ArrayList<>();
+        List<RawLine> batch = new ArrayList<>(BATCH_SIZE);
+        try (CharSource source = new CharSource(FileChannel.open(file, StandardOpenOption.READ))) {
+            LineParser parser = isJson(file, source) ? new JsonParser(source) : new CsvParser(source);
+            for (RawLine line; (line = parser.next()) != null;) {
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    batches.add(priceAsync(batch));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nothing gets imported, so hand back what the batches already in flight reserved
+            releaseAll(batches);
+            throw e;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(priceAsync(batch));
+        }
+        List<OrderLine> lines = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (CompletableFuture<Priced> priced : batches) {
+            Priced result = priced.join();
+            lines.addAll(result.lines);
+            errors.addAll(result.errors);
+        }
+        return new Result(lines, errors, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void releaseAll(List<CompletableFuture<Priced>> batches) {
+        for (CompletableFuture<Priced> priced : batches) {
+            try {
+                for (OrderLine line : priced.join().lines) {
+                    Inventory.shared().release(line.getToppings(), line.getQuantity());
+                }
+            } catch (RuntimeException e) {
+                Log.error("Could not release an abandoned import batch", e);
+            }
+        }
+    }
+
+    private static boolean isJson(Path file, CharSource source) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".json")) {
+            return true;
+        }
+        if (name.endsWith(".csv")) {
+            return false;
+        }
+        source.skipWhitespace();
+        int first = source.peek();
+        return first == '[' || first == '{';
+    }
+
+    private static CompletableFuture<Priced> priceAsync(List<RawLine> batch) {
+        return CompletableFuture.supplyAsync(() -> price(batch));
+    }
+
+    private static Priced price(List<RawLine> batch) {
+        Priced priced = new Priced(batch.size());
+        for (RawLine raw : batch) {
+            String error = validate(raw);
+            if (error != null) {
+                priced.errors.add("Line " + raw.number + ": " + error);
+                continue;
+            }
+            // Same toppings, in the same order, as adding the pizza by hand
+            List<String> toppings = new ArrayList<>(3 + raw.extras.size());
+            toppings.add("Cheese");
+            toppings.add(PizzaCatalog.signatureTopping(raw.type));
+            toppings.add("Tomato Sauce");
+            toppings.addAll(raw.extras);
+            int quantity = Integer.parseInt(raw.quantity);
+            String outOfStock = Inventory.shared().reserve(toppings, quantity);
+            if (outOfStock != null) {
+                priced.errors.add("Line " + raw.number + ": " + outOfStock + " is out of stock");
+                continue;
+            }
+            priced.lines.add(new OrderLine(raw.type, raw.size, toppings, quantity, PizzaCatalog.unitPrice(toppings.size())));
+        }
+        return priced;
+    }
+
+    private static String validate(RawLine raw) {
+        if (PizzaCatalog.typeId(raw.type) < 0) {
+            return "unknown pizza '" + raw.type + "'";
+        }
+        if (PizzaCatalog.sizeId(raw.size) < 0) {
+            return "unknown size '" + raw.size + "'";
+        }
+        int quantity;
+        try {
+            quantity = Integer.parseInt(raw.quantity);
+        } catch (NumberFormatException e) {
+            return "quantity '" + raw.quantity + "' is not a number";
+        }
+        if (quantity < 1 || quantity > MAX_QUANTITY) {
+            return "quantity must be between 1 and " + MAX_QUANTITY;
+        }
+        List<String> extras = PizzaCatalog.extraToppings();
+        for (String extra : raw.extras) {
+            if (!extras.contains(extra)) {
+                return "unknown extra topping '" + extra + "'";
+            }
+        }
+        return null;
+    }
+
+    static final class Result {
+
+        private final List<OrderLine> lines;
+        private final List<String> errors;
+        private final long elapsedMillis;
+
+        Result(List<OrderLine> lines, List<String> errors, long elapsedMillis) {
+            this.lines = Collections.unmodifiableList(lines);
+            this.errors = Collections.unmodifiableList(errors);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        List<OrderLine> getLines() {
+            return lines;
+        }
+
+        /**
+         * One message per skipped line, in file order.
+         */
+        List<String> getErrors() {
+            return errors;
+        }
+
+        long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        String summary() {
+            int pizzas = 0;
+            for (OrderLine line : lines) {
+                pizzas += line.getQuantity();
+            }
+            StringBuilder text = new StringBuilder(String.format("Imported %d lines (%d pizzas) in %d ms",
+                    lines.size(), pizzas, elapsedMillis));
+            if (!errors.isEmpty()) {
+                text.append("\nSkipped ").append(errors.size()).append(" lines:");
+                for (int i = 0; i < Math.min(10, errors.size()); i++) {
+                    text.append('\n').append(errors.get(i));
+                }
+                if (errors.size() > 10) {
+                    text.append("\n...");
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private static final class Priced {
+
+        final List<OrderLine> lines;
+        final List<String> errors = new ArrayList<>();
+
+        Priced(int capacity) {
+            lines = new ArrayList<>(capacity);
+        }
+    }
+
+    private static final class RawLine {
+
+        final long number;
+        final String type;
+        final String size;
+        final String quantity;
+        final List<String> extras;
+
+        RawLine(long number, String type, String size, String quantity, List<String> extras) {
+            this.number = number;
+            this.type = type;
+            this.size = size;
+            this.quantity = quantity;
+            this.extras = extras;
+        }
+    }
+
+    private interface LineParser {
+
+        /**
+         * @return the next pizza line, or null at the end of the file
+         */
+        RawLine next() throws IOException;
+    }
+
+    private static final class CsvParser implements LineParser {
+
+        private final CharSource source;
+        private final StringBuilder field = new StringBuilder();
+        private final List<String> fields = new ArrayList<>(4);
+        private long lineNumber;
+
+        CsvParser(CharSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public RawLine next() throws IOException {
+            while (readRecord()) {
+                lineNumber++;
+                if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue;
+                }
+                if (lineNumber == 1 && fields.get(0).equalsIgnoreCase("type")) {
+                    continue;
+                }
+                String quantity = fields.size() > 2 ? fields.get(2) : "1";
+                List<String> extras = new ArrayList<>();
+                if (fields.size() > 3) {
+                    for (String extra : fields.get(3).split(";")) {
+                        if (!extra.trim().isEmpty()) {
+                            extras.add(extra.trim());
+                        }
+                    }
+                }
+                return new RawLine(lineNumber, field(0), field(1), quantity, extras);
+            }
+            return null;
+        }
+
+        private String field(int index) {
+            return index < fields.size() ? fields.get(index) : "";
+        }
+
+        // Reads one record into fields; false at the end of the file
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            field.setLength(0);
+            int c = source.next();
+            if (c < 0) {
+                return false;
+            }
+            boolean quoted = false;
+            for (; c >= 0; c = source.next()) {
+                if (quoted) {
+                    if (c == '"') {
+                        if (source.peek() == '"') {
+                            field.append('"');
+                            source.next();
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            fields.add(field.toString().trim());
+            return true;
+        }
+    }
+
+    private static final class JsonParser implements LineParser {
+
+        private final CharSource source;
+        private final StringBuilder text = new StringBuilder();
+        private long objectNumber;
+
+        JsonParser(CharSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public RawLine next() throws IOException {
+            // Skip array brackets and separators between objects
+            while (true) {
+                source.skipWhitespace();
+                int c = source.peek();
+                if (c < 0) {
+                    return null;
+                }
+                if (c == '{') {
+                    break;
+                }
+                if (c != '[' && c != ']' && c != ',') {
+                    throw error("expected an object");
+                }
+                source.next();
+            }
+            source.next();
+            objectNumber++;
+            String type = "";
+            String size = "";
+            String quantity = "1";
+            List<String> extras = new ArrayList<>();
+            source.skipWhitespace();
+            if (source.peek() == '}') {
+                source.next();
+                return new RawLine(objectNumber, type, size, quantity, extras);
+            }
+            while (true) {
+                source.skipWhitespace();
+                String key = readString();
+                expect(':');
+                source.skipWhitespace();
+                switch (key) {
+                    case "type":
+                        type = readScalar();
+                        break;
+                    case "size":
+                        size = readScalar();
+                        break;
+                    case "quantity":
+                        quantity = readScalar();
+                        break;
+                    case "extras":
+                        readStrings(extras);
+                        break;
+                    default:
+                        skipValue();
+                        break;
+                }
+                source.skipWhitespace();
+                int c = source.next();
+                if (c == '}') {
+                    return new RawLine(objectNumber, type, size, quantity, extras);
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        private void expect(char expected) throws IOException {
+            source.skipWhitespace();
+            if (source.next() != expected) {
+                throw error("expected '" + expected + "'");
+            }
+        }
+
+        private String readString() throws IOException {
+            if (source.next() != '"') {
+                throw error("expected a string");
+            }
+            text.setLength(0);
+            for (int c = source.next(); c != '"'; c = source.next()) {
+                if (c < 0) {
+                    throw error("unterminated string");
+                }
+                if (c == '\\') {
+                    c = source.next();
+                    switch (c) {
+                        case 'n':
+                            c = '\n';
+                            break;
+                        case 't':
+                            c = '\t';
+                            break;
+                        case 'r':
+                            c = '\r';
+                            break;
+                        case 'b':
+                            c = '\b';
+                            break;
+                        case 'f':
+                            c = '\f';
+                            break;
+                        case 'u':
+                            c = 0;
+                            for (int i = 0; i < 4; i++) {
+                                c = c * 16 + Character.digit(source.next(), 16);
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                text.append((char) c);
+            }
+            return text.toString();
+        }
+
+        // A string, number or literal, as text
+        private String readScalar() throws IOException {
+            if (source.peek() == '"') {
+                return readString().trim();
+            }
+            text.setLength(0);
+            for (int c = source.peek(); c >= 0 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c); c = source.peek()) {
+                text.append((char) source.next());
+            }
+            return text.toString();
+        }
+
+        private void readStrings(List<String> into) throws IOException {
+            if (source.peek() != '[') {
+                into.add(readScalar());
+                return;
+            }
+            source.next();
+            source.skipWhitespace();
+            if (source.peek() == ']') {
+                source.next();
+                return;
+            }
+            while (true) {
+                source.skipWhitespace();
+                into.add(readScalar());
+                source.skipWhitespace();
+                int c = source.next();
+                if (c == ']') {
+                    return;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or ']'");
+                }
+            }
+        }
+
+        private void skipValue() throws IOException {
+            int c = source.peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '[' || c == '{') {
+                int depth = 0;
+                do {
+                    c = source.peek();
+                    if (c == '"') {
+                        readString();
+                        continue;
+                    }
+                    source.next();
+                    if (c == '[' || c == '{') {
+                        depth++;
+                    } else if (c == ']' || c == '}') {
+                        depth--;
+                    } else if (c < 0) {
+                        throw error("unexpected end of file");
+                    }
+                } while (depth > 0);
+            } else {
+                readScalar();
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException("Object " + (objectNumber + 1) + ": " + message);
+        }
+    }
+
+    // UTF-8 text from a channel through fixed size buffers
+    private static final class CharSource implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private boolean endOfInput;
+        private boolean flushed;
+
+        CharSource(FileChannel channel) {
+            this.channel = channel;
+            chars.flip();
+        }
+
+        int next() throws IOException {
+            if (!chars.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return chars.get();
+        }
+
+        int peek() throws IOException {
+            if (!chars.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return chars.get(chars.position());
+        }
+
+        void skipWhitespace() throws IOException {
+            for (int c = peek(); c >= 0 && (Character.isWhitespace(c) || c == '\uFEFF'); c = peek()) {
+                chars.get();
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (flushed) {
+                return false;
+            }
+            chars.clear();
+            while (chars.position() == 0 && !flushed) {
+                if (!endOfInput && channel.read(bytes) < 0) {
+                    endOfInput = true;
+                }
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                bytes.compact();
+                if (endOfInput && bytes.position() == 0) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+            }
+            chars.flip();
+            return chars.hasRemaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package gui;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central table of every live order, indexed by order id.
+ *
+ * Each slot packs the owning order id (high 32 bits) and the state code (low
+ * 32 bits) into one long, so a transition is a single compare-and-set that
+ * also proves the slot still belongs to the order. Slots holding a terminal
+ * state are reclaimed by later registrations.
+ */
+final class OrderStateTable {
+
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final OrderStateTable SHARED = new OrderStateTable(DEFAULT_CAPACITY);
+
+    static OrderStateTable shared() {
+        return SHARED;
+    }
+
+    interface Visitor {
+
+        void visit(int orderId, OrderState state, long stateSinceNanos, long createdNanos);
+    }
+
+    /**
+     * Called on the thread that made the change, so implementations must be
+     * cheap and must not block; {@code from} is FREE for a new order.
+     */
+    interface Listener {
+
+        void stateChanged(int orderId, OrderState from, OrderState to);
+    }
+
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicLongArray stateSince;
+    private final AtomicLongArray created;
+    private final LongAdder[] counts;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    OrderStateTable(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.slots = new AtomicLongArray(capacity);
+        this.stateSince = new AtomicLongArray(capacity);
+        this.created = new AtomicLongArray(capacity);
+        this.counts = new LongAdder[OrderState.values().length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Claims a slot for a new order in the {@link OrderState#CONFIRMED} state.
+     */
+    int register() {
+        for (int attempt = 0; attempt <= mask; attempt++) {
+            int id = nextId.getAndIncrement() & Integer.MAX_VALUE;
+            if (id == 0) {
+                continue;
+            }
+            int slot = id & mask;
+            long current = slots.get(slot);
+            OrderState previous = OrderState.of(stateCode(current));
+            if (!previous.isReclaimable()) {
+                continue;
+            }
+            if (slots.compareAndSet(slot, current, pack(id, OrderState.CONFIRMED))) {
+                long now = System.nanoTime();
+                created.set(slot, now);
+                stateSince.set(slot, now);
+                if (previous != OrderState.FREE) {
+                    counts[previous.ordinal()].decrement();
+                }
+                counts[OrderState.CONFIRMED.ordinal()].increment();
+                fire(id, OrderState.FREE, OrderState.CONFIRMED);
+                return id;
+            }
+        }
+        throw new IllegalStateException("Order state table is full (" + capacity() + " live orders)");
+    }
+
+    /**
+     * Atomically moves an order from {@code expected} to {@code next}.
+     *
+     * @return false if the order is unknown or was not in {@code expected}
+     */
+    boolean transition(int orderId, OrderState expected, OrderState next) {
+        int slot = orderId & mask;
+        if (!slots.compareAndSet(slot, pack(orderId, expected), pack(orderId, next))) {
+            return false;
+        }
+        stateSince.set(slot, System.nanoTime());
+        counts[expected.ordinal()].decrement();
+        counts[next.ordinal()].increment();
+        fire(orderId, expected, next);
+        return true;
+    }
+
+    /**
+     * @return the current state, or {@link OrderState#FREE} if the id no
+     * longer owns its slot
+     */
+    OrderState stateOf(int orderId) {
+        long word = slots.get(orderId & mask);
+        if (orderIdOf(word) != orderId) {
+            return OrderState.FREE;
+        }
+        return OrderState.of(stateCode(word));
+    }
+
+    long stateSinceNanos(int orderId) {
+        return stateSince.get(orderId & mask);
+    }
+
+    long createdNanos(int orderId) {
+        return created.get(orderId & mask);
+    }
+
+    long count(OrderState state) {
+        return counts[state.ordinal()].sum();
+    }
+
+    /**
+     * Number of orders that are registered but not yet in a terminal state.
+     */
+    long inFlight() {
+        long total = 0;
+        for (OrderState state : OrderState.values()) {
+            if (!state.isReclaimable()) {
+                total += counts[state.ordinal()].sum();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Walks every occupied slot without locking. The view is weakly
+     * consistent: orders moving during the walk are reported in either their
+     * old or their new state.
+     */
+    void forEach(Visitor visitor) {
+        for (int slot = 0; slot <= mask; slot++) {
+            long word = slots.get(slot);
+            int code = stateCode(word);
+            if (code == OrderState.FREE.ordinal()) {
+                continue;
+            }
+            visitor.visit(orderIdOf(word), OrderState.of(code), stateSince.get(slot), created.get(slot));
+        }
+    }
+
+    /**
+     * Ids of the orders that have been in {@code state} for at least
+     * {@code minAge}, e.g. everything stuck in the oven for ten minutes.
+     */
+    int[] stuckIn(OrderState state, long minAge, TimeUnit unit) {
+        long cutoff = System.nanoTime() - unit.toNanos(minAge);
+        int[] found = new int[16];
+        int size = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            long word = slots.get(slot);
+            if (stateCode(word) != state.ordinal() || stateSince.get(slot) - cutoff > 0) {
+                continue;
+            }
+            if (size == found.length) {
+                found = Arrays.copyOf(found, size * 2);
+            }
+            found[size++] = orderIdOf(word);
+        }
+        return Arrays.copyOf(found, size);
+    }
+
+    private void fire(int orderId, OrderState from, OrderState to) {
+        for (Listener listener : listeners) {
+            listener.stateChanged(orderId, from, to);
+        }
+    }
+
+    private static long pack(int orderId, OrderState state) {
+        return ((long) orderId << 32) | state.ordinal();
+    }
+
+    private static int orderIdOf(long word) {
+        return (int) (word >>> 32);
+    }
+
+    private static int stateCode(long word) {
+        return (int) word;
+    }
+}
+
+enum OrderState {
+
+    FREE("Free"),
+    CONFIRMED("Order Confirmed"),
+    ACCEPTED("Order Accepted"),
+    COOKED("Finished cooking"),
+    PACKED("Finished packing"),
+    HANDED_OVER("Handed over"),
+    CANCELLED("Order Cancelled");
+
+    private static final OrderState[] BY_CODE = values();
+
+    private final String label;
+
+    OrderState(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    boolean isReclaimable() {
+        return this == FREE || this == HANDED_OVER || this == CANCELLED;
+    }
+
+    static OrderState of(int code) {
+        return BY_CODE[code];
+    }
+
+    static OrderState fromLabel(String label) {
+        for (OrderState state : BY_CODE) {
+            if (state.label.equals(label)) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("Unknown order state: " + label);
+    }
+}
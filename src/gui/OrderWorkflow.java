@@ -0,0 +1,373 @@
+package gui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * The steps a confirmed order goes through, as a graph instead of a chain.
+ *
+ * A workflow is read from {@code syzygy.workflow} (a file) or
+ * {@code /resources/workflow.txt}, one {@code name = kind [after a, b]} per
+ * line, and compiled once into arrays of step factories and successor
+ * indexes that every order reuses. When a step finishes, the thread that
+ * ran it carries on with one newly ready successor and hands any others to
+ * the branch pool, so a linear workflow never leaves the calling thread and
+ * a join runs on whichever branch finishes last.
+ */
+final class OrderWorkflow {
+
+    static final String RESOURCE = "/resources/workflow.txt";
+
+    private static final Map<String, Function<String, OrderStep>> KINDS = new ConcurrentHashMap<>();
+
+    static {
+        KINDS.put("accepting", name -> new AcceptingStep());
+        KINDS.put("cooking", name -> new CookingStep());
+        KINDS.put("packing", name -> new PackingStep());
+        KINDS.put("handover", name -> new HandoverStep());
+        KINDS.put("prep", PrepStep::new);
+    }
+
+    // What the state-moving steps must reach, in this order
+    private static final OrderState[] PIPELINE = {OrderState.ACCEPTED, OrderState.COOKED, OrderState.PACKED, OrderState.HANDED_OVER};
+
+    private static final ExecutorService BRANCHES = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "order-workflow");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static OrderWorkflow shared;
+
+    static synchronized OrderWorkflow shared() {
+        if (shared == null) {
+            shared = load();
+        }
+        return shared;
+    }
+
+    /**
+     * Makes {@code kind} usable in workflow definitions.
+     */
+    static void registerKind(String kind, Function<String, OrderStep> factory) {
+        KINDS.put(kind, factory);
+    }
+
+    // The compiled plan, nodes in topological order
+    private final String[] names;
+    private final List<Function<String, OrderStep>> factories;
+    private final int[][] successors;
+    private final int[] predecessorCounts;
+    private final int[] roots;
+
+    private OrderWorkflow(String[] names, List<Function<String, OrderStep>> factories, int[][] successors, int[] predecessorCounts) {
+        this.names = names;
+        this.factories = factories;
+        this.successors = successors;
+        this.predecessorCounts = predecessorCounts;
+        int rootCount = 0;
+        for (int count : predecessorCounts) {
+            if (count == 0) {
+                rootCount++;
+            }
+        }
+        this.roots = new int[rootCount];
+        for (int i = 0, r = 0; i < predecessorCounts.length; i++) {
+            if (predecessorCounts[i] == 0) {
+                roots[r++] = i;
+            }
+        }
+    }
+
+    static OrderWorkflow load() {
+        String file = System.getProperty("syzygy.workflow");
+        try {
+            if (file != null) {
+                try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                    return parse(reader);
+                }
+            }
+            try (InputStream in = OrderWorkflow.class.getResourceAsStream(RESOURCE)) {
+                if (in != null) {
+                    return parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.error("Could not load the workflow, using the linear one", e);
+        }
+        return linear();
+    }
+
+    /**
+     * The original chain: accept, cook, pack, hand over.
+     */
+    static OrderWorkflow linear() {
+        Map<String, String[]> graph = new LinkedHashMap<>();
+        Map<String, String> kinds = new HashMap<>();
+        String previous = null;
+        for (String kind : new String[]{"accepting", "cooking", "packing", "handover"}) {
+            graph.put(kind, previous == null ? new String[0] : new String[]{previous});
+            kinds.put(kind, kind);
+            previous = kind;
+        }
+        return compile(graph, kinds);
+    }
+
+    static OrderWorkflow parse(BufferedReader reader) throws IOException {
+        Map<String, String[]> graph = new LinkedHashMap<>();
+        Map<String, String> kinds = new HashMap<>();
+        int lineNumber = 0;
+        for (String line; (line = reader.readLine()) != null;) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected name = kind [after step, ...]");
+            }
+            String name = line.substring(0, equals).trim();
+            String rest = line.substring(equals + 1).trim();
+            String[] after = new String[0];
+            int split = rest.indexOf(" after ");
+            if (split >= 0) {
+                after = rest.substring(split + " after ".length()).split("\\s*,\\s*");
+                rest = rest.substring(0, split).trim();
+            }
+            if (graph.put(name, after) != null) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": step " + name + " is defined twice");
+            }
+            kinds.put(name, rest);
+        }
+        return compile(graph, kinds);
+    }
+
+    /**
+     * Checks the graph and orders it for execution.
+     *
+     * @param graph each step's name and the steps it runs after
+     * @param kinds each step's kind
+     */
+    static OrderWorkflow compile(Map<String, String[]> graph, Map<String, String> kinds) {
+        if (graph.isEmpty()) {
+            throw new IllegalArgumentException("Workflow has no steps");
+        }
+        List<String> declared = new ArrayList<>(graph.keySet());
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < declared.size(); i++) {
+            index.put(declared.get(i), i);
+        }
+        int n = declared.size();
+        List<List<Integer>> out = new ArrayList<>();
+        int[] inDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            out.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            if (!KINDS.containsKey(kinds.get(declared.get(i)))) {
+                throw new IllegalArgumentException("Step " + declared.get(i) + " has unknown kind " + kinds.get(declared.get(i)));
+            }
+            for (String dependency : graph.get(declared.get(i))) {
+                Integer from = index.get(dependency);
+                if (from == null) {
+                    throw new IllegalArgumentException("Step " + declared.get(i) + " runs after unknown step " + dependency);
+                }
+                out.get(from).add(i);
+                inDegree[i]++;
+            }
+        }
+        // Kahn's algorithm; whatever is left over is on a cycle
+        int[] order = new int[n];
+        int[] remaining = inDegree.clone();
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            int node = ready.poll();
+            order[sorted++] = node;
+            for (int next : out.get(node)) {
+                if (--remaining[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (sorted < n) {
+            List<String> cycle = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (remaining[i] > 0) {
+                    cycle.add(declared.get(i));
+                }
+            }
+            throw new IllegalArgumentException("Workflow has a cycle through " + cycle);
+        }
+        int[] position = new int[n];
+        for (int i = 0; i < n; i++) {
+            position[order[i]] = i;
+        }
+        String[] names = new String[n];
+        List<Function<String, OrderStep>> factories = new ArrayList<>(n);
+        int[][] successors = new int[n][];
+        int[] predecessorCounts = new int[n];
+        for (int p = 0; p < n; p++) {
+            int node = order[p];
+            names[p] = declared.get(node);
+            factories.add(KINDS.get(kinds.get(names[p])));
+            successors[p] = out.get(node).stream().mapToInt(next -> position[next]).sorted().toArray();
+            predecessorCounts[p] = inDegree[node];
+        }
+        OrderWorkflow workflow = new OrderWorkflow(names, factories, successors, predecessorCounts);
+        workflow.checkStateStepsInSequence();
+        return workflow;
+    }
+
+    // Steps that move OrderState must each run after the one before, never beside it, and take the order through PIPELINE
+    private void checkStateStepsInSequence() {
+        int n = names.length;
+        BitSet[] ancestors = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            ancestors[i] = new BitSet(n);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int next : successors[i]) {
+                ancestors[next].or(ancestors[i]);
+                ancestors[next].set(i);
+            }
+        }
+        int previous = -1;
+        int reached = 0;
+        for (int i = 0; i < n; i++) {
+            OrderStep step = factories.get(i).apply(names[i]);
+            if (step.movesOrderState()) {
+                if (previous >= 0 && !ancestors[i].get(previous)) {
+                    throw new IllegalArgumentException("Steps " + names[previous] + " and " + names[i]
+                            + " both move the order's state, so one must run after the other");
+                }
+                if (reached == PIPELINE.length || step.reaches() != PIPELINE[reached]) {
+                    throw new IllegalArgumentException("Step " + names[i] + " is out of order: " + (reached == PIPELINE.length
+                            ? "the order has already been handed over" : "the order must be taken to " + PIPELINE[reached].getLabel() + " here"));
+                }
+                reached++;
+                previous = i;
+            }
+        }
+        if (reached < PIPELINE.length) {
+            throw new IllegalArgumentException("Workflow never takes the order to " + PIPELINE[reached].getLabel());
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * The steps in the order they may start.
+     */
+    List<String> stepNames() {
+        return Arrays.asList(names.clone());
+    }
+
+    /**
+     * Starts an order through the workflow on the calling thread.
+     *
+     * @return completes with true once every step has run, false as soon as
+     *         one fails the order (nothing after it starts)
+     */
+    CompletableFuture<Boolean> start(Status status) {
+        Run run = new Run(status);
+        for (int r = 1; r < roots.length; r++) {
+            int root = roots[r];
+            BRANCHES.execute(() -> run.execute(root));
+        }
+        run.execute(roots[0]);
+        return run.done;
+    }
+
+    /**
+     * Runs an order through the workflow and waits for it.
+     *
+     * @return false if a step failed the order
+     */
+    boolean run(Status status) {
+        try {
+            return start(status).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private final class Run {
+
+        final Status status;
+        final AtomicIntegerArray waitingFor = new AtomicIntegerArray(predecessorCounts);
+        final AtomicInteger left = new AtomicInteger(names.length);
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Run(Status status) {
+            this.status = status;
+        }
+
+        void execute(int node) {
+            for (int current = node; current >= 0 && !done.isDone();) {
+                OrderStep step = factories.get(current).apply(names[current]);
+                try {
+                    step.processStep(status);
+                } catch (RuntimeException e) {
+                    // A step that throws fails the order like one that refuses it
+                    status.fail();
+                    done.completeExceptionally(e);
+                    return;
+                }
+                if (step.hasFailed()) {
+                    done.complete(false);
+                    return;
+                }
+                if (left.decrementAndGet() == 0) {
+                    done.complete(true);
+                    return;
+                }
+                int next = -1;
+                for (int successor : successors[current]) {
+                    if (waitingFor.decrementAndGet(successor) == 0) {
+                        if (next < 0) {
+                            next = successor;
+                        } else {
+                            BRANCHES.execute(() -> execute(successor));
+                        }
+                    }
+                }
+                current = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Authorizes payment for checked-out orders before they go to the kitchen.
+ *
+ * Requests are collected for up to {@code syzygy.payment.windowMillis}
+ * (default 20) or until a batch is full, and sent to the PaymentProcessor
+ * as one call. Any number of batches may be waiting for their responses,
+ * which are matched back to requests by id in whatever order they come, so
+ * throughput does not depend on the processor's round trip. A request
+ * without a response within {@code syzygy.payment.timeoutMillis} (default
+ * 2000), or one the processor could not handle, is sent again with the same
+ * payment id, up to {@code syzygy.payment.attempts} (default 3) times.
+ *
+ * An order that is approved but then not made (rejected, declined or
+ * failed in the kitchen) has its authorization voided with
+ * {@link #reverse(Order)}, retried the same way.
+ */
+final class PaymentStage {
+
+    private static PaymentStage shared;
+
+    static synchronized PaymentStage shared() {
+        if (shared == null) {
+            shared = new PaymentStage(StubPaymentProcessor.fromSystemProperties(),
+                    Long.getLong("syzygy.payment.windowMillis", 20),
+                    Integer.getInteger("syzygy.payment.batchSize", 64),
+                    Long.getLong("syzygy.payment.timeoutMillis", 2000),
+                    Integer.getInteger("syzygy.payment.attempts", 3));
+        }
+        return shared;
+    }
+
+    private final PaymentProcessor processor;
+    private final long windowMillis;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int attempts;
+    private final Queue<Pending> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Map<Long, Pending> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final AtomicLong nextPaymentId = new AtomicLong(System.currentTimeMillis() << 16);
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder reversals = new LongAdder();
+    private final ScheduledExecutorService batcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "payment-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    PaymentStage(PaymentProcessor processor, long windowMillis, int batchSize, long timeoutMillis, int attempts) {
+        this.processor = processor;
+        this.windowMillis = windowMillis;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Asks for what is due on the order to be authorized.
+     *
+     * @return completes with the final response: APPROVED, DECLINED, or
+     *         FAILED once every attempt failed or timed out
+     */
+    CompletableFuture<AuthorizationResponse> authorize(Order order) {
+        Pending pending = new Pending(nextPaymentId.incrementAndGet(), order.getCustomerName(), order.getAmountDueCents());
+        if (pending.amountCents == 0) {
+            // Paid in full with loyalty points
+            pending.result.complete(new AuthorizationResponse(0, pending.paymentId,
+                    AuthorizationResponse.Outcome.APPROVED, "POINTS", "Nothing to pay"));
+            return pending.result;
+        }
+        enqueue(pending);
+        return pending.result;
+    }
+
+    /**
+     * Voids the order's authorization, if it has one, so the customer is
+     * not charged for an order that will not be made. Only the first call
+     * for an order does anything.
+     */
+    void reverse(Order order) {
+        if (order.getPaymentId() != 0 && order.reversePayment()) {
+            reverse(order.getPaymentId());
+        }
+    }
+
+    /**
+     * Voids {@code paymentId}; the processor ignores ids it did not approve.
+     */
+    void reverse(long paymentId) {
+        reverse(paymentId, 1);
+    }
+
+    private void reverse(long paymentId, int attempt) {
+        CompletableFuture<Boolean> voided;
+        try {
+            voided = processor.voidAuthorization(paymentId);
+        } catch (RuntimeException e) {
+            voided = new CompletableFuture<>();
+            voided.completeExceptionally(e);
+        }
+        voided.whenComplete((done, error) -> {
+            if (error == null) {
+                if (done) {
+                    reversals.increment();
+                }
+            } else if (attempt < attempts) {
+                retries.increment();
+                batcher.schedule(() -> reverse(paymentId, attempt + 1), windowMillis << Math.min(attempt, 6), TimeUnit.MILLISECONDS);
+            } else {
+                Log.error("Could not void payment %s", Long.toString(paymentId), error);
+            }
+        });
+    }
+
+    long reversalCount() {
+        return reversals.sum();
+    }
+
+    long batchCount() {
+        return batches.sum();
+    }
+
+    long retryCount() {
+        return retries.sum();
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private void enqueue(Pending pending) {
+        waiting.add(pending);
+        if (waitingCount.incrementAndGet() >= batchSize) {
+            batcher.execute(this::flushQuietly);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            batcher.schedule(this::flushQuietly, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.error("Payment batch failed", e);
+        }
+    }
+
+    // Batcher thread: sends everything waiting, a batch at a time
+    private void flush() {
+        flushScheduled.set(false);
+        while (true) {
+            List<AuthorizationRequest> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, waitingCount.get())));
+            for (Pending pending; batch.size() < batchSize && (pending = waiting.poll()) != null;) {
+                waitingCount.decrementAndGet();
+                long requestId = nextRequestId.incrementAndGet();
+                pending.attempt++;
+                inFlight.put(requestId, pending);
+                pending.timeout = batcher.schedule(() -> timedOut(requestId), timeoutMillis, TimeUnit.MILLISECONDS);
+                batch.add(new AuthorizationRequest(requestId, pending.paymentId, pending.customer, pending.amountCents, pending.attempt));
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            batches.increment();
+            send(batch);
+            if (batch.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    private void send(List<AuthorizationRequest> batch) {
+        CompletableFuture<List<AuthorizationResponse>> responses;
+        try {
+            responses = processor.authorize(batch);
+        } catch (RuntimeException e) {
+            responses = new CompletableFuture<>();
+            responses.completeExceptionally(e);
+        }
+        responses.whenComplete((list, error) -> {
+            if (error != null) {
+                for (AuthorizationRequest request : batch) {
+                    Pending pending = inFlight.remove(request.getRequestId());
+                    if (pending != null) {
+                        pending.timeout.cancel(false);
+                        retryOrFail(pending, "Payment processor unavailable");
+                    }
+                }
+                return;
+            }
+            // Requests missing from the list are left to time out
+            for (AuthorizationResponse response : list) {
+                Pending pending = inFlight.remove(response.getRequestId());
+                if (pending == null) {
+                    continue;
+                }
+                pending.timeout.cancel(false);
+                if (response.getOutcome() == AuthorizationResponse.Outcome.FAILED) {
+                    retryOrFail(pending, response.getMessage());
+                } else {
+                    pending.result.complete(response);
+                }
+            }
+        });
+    }
+
+    private void timedOut(long requestId) {
+        Pending pending = inFlight.remove(requestId);
+        if (pending != null) {
+            retryOrFail(pending, "No answer from the payment processor");
+        }
+    }
+
+    private void retryOrFail(Pending pending, String reason) {
+        if (pending.attempt < attempts) {
+            retries.increment();
+            // Back off a little more each time, then join the next batch
+            long delay = windowMillis << Math.min(pending.attempt, 6);
+            batcher.schedule(() -> enqueue(pending), delay, TimeUnit.MILLISECONDS);
+        } else {
+            pending.result.complete(new AuthorizationResponse(0, pending.paymentId,
+                    AuthorizationResponse.Outcome.FAILED, null, reason));
+        }
+    }
+
+    private static final class Pending {
+
+        final long paymentId;
+        final String customer;
+        final long amountCents;
+        final CompletableFuture<AuthorizationResponse> result = new CompletableFuture<>();
+        int attempt;
+        volatile ScheduledFuture<?> timeout;
+
+        Pending(long paymentId, String customer, long amountCents) {
+            this.paymentId = paymentId;
+            this.customer = customer;
+            this.amountCents = amountCents;
+        }
+    }
+
+    /**
+     * Load test: {@code orders} (default 20000) authorizations against the
+     * stub processor, printing throughput, batches and retries. Unless the
+     * {@code syzygy.payment.stub.*} properties say otherwise, the stub
+     * answers in 150 ms give or take half and fails 2%, declines 1% and
+     * drops 0.5% of requests.
+     */
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        PaymentStage stage = new PaymentStage(StubPaymentProcessor.fromSystemProperties(150, 0.02, 0.01, 0.005), 20, 64, 2000, 3);
+        Order order = new Order("Load test", Arrays.asList(
+                new OrderLine("Chicken Pizza", "Large", Arrays.asList("Cheese", "Chicken", "Tomato Sauce"), 2, 1200.0)));
+        int[] outcomes = new int[AuthorizationResponse.Outcome.values().length];
+        CountDownLatch done = new CountDownLatch(orders);
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            stage.authorize(order).thenAccept(response -> {
+                synchronized (outcomes) {
+                    outcomes[response.getOutcome().ordinal()]++;
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d authorizations in %d ms: %.0f/s, %d batches, %d retries%n", orders,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), orders / (elapsed / 1e9), stage.batchCount(), stage.retryCount());
+        for (AuthorizationResponse.Outcome outcome : AuthorizationResponse.Outcome.values()) {
+            System.out.printf("%s: %d%n", outcome, outcomes[outcome.ordinal()]);
+        }
+    }
+}
+
+/**
+ * A card processor that authorizes many payments per call.
+ *
+ * Responses may come back in any order, and a response left out of the list
+ * is treated as lost. The same payment id may be sent more than once after
+ * a timeout, and must not be charged twice.
+ */
+interface PaymentProcessor {
+
+    CompletableFuture<List<AuthorizationResponse>> authorize(List<AuthorizationRequest> batch);
+
+    /**
+     * Releases the hold of an approved payment, before it is captured.
+     * Voiding the same id again, or one that was never approved, does
+     * nothing.
+     *
+     * @return completes with whether there was an approval to void
+     */
+    CompletableFuture<Boolean> voidAuthorization(long paymentId);
+}
+
+class AuthorizationRequest {
+
+    private final long requestId;
+    private final long paymentId;
+    private final String customer;
+    private final long amountCents;
+    private final int attempt;
+
+    public AuthorizationRequest(long requestId, long paymentId, String customer, long amountCents, int attempt) {
+        this.requestId = requestId;
+        this.paymentId = paymentId;
+        this.customer = customer;
+        this.amountCents = amountCents;
+        this.attempt = attempt;
+    }
+
+    /**
+     * Unique per attempt; the response carries it back.
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * The same on every attempt for one payment.
+     */
+    public long getPaymentId() {
+        return paymentId;
+    }
+
+    public String getCustomer() {
+        return customer;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+}
+
+class AuthorizationResponse {
+
+    enum Outcome {
+        APPROVED, DECLINED, FAILED
+    }
+
+    private final long requestId;
+    private final long paymentId;
+    private final Outcome outcome;
+    private final String authCode;
+    private final String message;
+
+    public AuthorizationResponse(long requestId, long paymentId, Outcome outcome, String authCode, String message) {
+        this.requestId = requestId;
+        this.paymentId = paymentId;
+        this.outcome = outcome;
+        this.authCode = authCode;
+        this.message = message;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public long getPaymentId() {
+        return paymentId;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public boolean isApproved() {
+        return outcome == Outcome.APPROVED;
+    }
+
+    /**
+     * The processor's reference for an approved payment, otherwise null.
+     */
+    public String getAuthCode() {
+        return authCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
+
+/**
+ * In-process stand-in for a card processor, for tills without one and for
+ * testing. Each batch is answered after {@code syzygy.payment.stub.latencyMillis}
+ * give or take half, in shuffled order. Each request fails with
+ * {@code failureRate}, is declined with {@code declineRate} and gets no
+ * answer with {@code dropRate}. All of them default to 0 for the till, so
+ * failures are only injected when a test sets them.
+ */
+class StubPaymentProcessor implements PaymentProcessor {
+
+    private static final ScheduledExecutorService RESPONDER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "payment-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long latencyMillis;
+    private final double failureRate;
+    private final double declineRate;
+    private final double dropRate;
+    // Approved payments, so a resent payment gets the same answer
+    private final Map<Long, String> approved = new ConcurrentHashMap<>();
+
+    public StubPaymentProcessor(long latencyMillis, double failureRate, double declineRate, double dropRate) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.declineRate = declineRate;
+        this.dropRate = dropRate;
+    }
+
+    static StubPaymentProcessor fromSystemProperties() {
+        return fromSystemProperties(0, 0, 0, 0);
+    }
+
+    static StubPaymentProcessor fromSystemProperties(long latencyMillis, double failureRate, double declineRate, double dropRate) {
+        return new StubPaymentProcessor(Long.getLong("syzygy.payment.stub.latencyMillis", latencyMillis),
+                Double.parseDouble(System.getProperty("syzygy.payment.stub.failureRate", Double.toString(failureRate))),
+                Double.parseDouble(System.getProperty("syzygy.payment.stub.declineRate", Double.toString(declineRate))),
+                Double.parseDouble(System.getProperty("syzygy.payment.stub.dropRate", Double.toString(dropRate))));
+    }
+
+    @Override
+    public CompletableFuture<List<AuthorizationResponse>> authorize(List<AuthorizationRequest> batch) {
+        CompletableFuture<List<AuthorizationResponse>> result = new CompletableFuture<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<AuthorizationResponse> responses = new ArrayList<>(batch.size());
+        for (AuthorizationRequest request : batch) {
+            double roll = random.nextDouble();
+            if (roll < dropRate) {
+                continue;
+            }
+            String code = approved.get(request.getPaymentId());
+            if (code != null) {
+                responses.add(new AuthorizationResponse(request.getRequestId(), request.getPaymentId(),
+                        AuthorizationResponse.Outcome.APPROVED, code, "Approved"));
+            } else if (roll < dropRate + failureRate) {
+                responses.add(new AuthorizationResponse(request.getRequestId(), request.getPaymentId(),
+                        AuthorizationResponse.Outcome.FAILED, null, "Processor busy"));
+            } else if (roll < dropRate + failureRate + declineRate || request.getAmountCents() < 0) {
+                responses.add(new AuthorizationResponse(request.getRequestId(), request.getPaymentId(),
+                        AuthorizationResponse.Outcome.DECLINED, null, "Card declined"));
+            } else {
+                code = String.format("A%06d", random.nextInt(1000000));
+                String previous = approved.putIfAbsent(request.getPaymentId(), code);
+                responses.add(new AuthorizationResponse(request.getRequestId(), request.getPaymentId(),
+                        AuthorizationResponse.Outcome.APPROVED, previous != null ? previous : code, "Approved"));
+            }
+        }
+        Collections.shuffle(responses, random);
+        long delay = latencyMillis / 2 + (latencyMillis > 0 ? random.nextLong(latencyMillis + 1) : 0);
+        RESPONDER.schedule(() -> result.complete(responses), delay, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> voidAuthorization(long paymentId) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        boolean voided = approved.remove(paymentId) != null;
+        RESPONDER.schedule(() -> result.complete(voided), latencyMillis / 2, TimeUnit.MILLISECONDS);
+        return result;
+    }
+}
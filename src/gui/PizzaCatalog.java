@@ -0,0 +1,151 @@
+package gui;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The pizzas, sizes and toppings the shop sells, with small dense ids for
+ * code that stores orders column-wise.
+ *
+ * The pizzas and their signature toppings come from the same menu the
+ * MenuGrid shows ({@link MenuItem#load()}), so a pizza added to menu.txt is
+ * sold, stocked, imported and reported like the others. Ids follow menu
+ * order; add new pizzas at the end to keep stored ids meaning the same.
+ */
+final class PizzaCatalog {
+
+    static final double BASE_PRICE = 1050.0;
+    static final double TOPPING_PRICE = 50.0;
+
+    private static final List<MenuItem> MENU = MenuItem.load();
+    private static final String[] TYPES = new String[MENU.size()];
+    private static final String[] SIGNATURE_TOPPINGS = new String[MENU.size()];
+    private static final String[] SIZES = {"Small", "Medium", "Large"};
+    private static final String[] DEFAULT_TOPPINGS = {"Cheese", "Tomato Sauce"};
+    private static final String[] EXTRA_TOPPINGS = {"Extra Cheese", "Oniens", "BBQ Sauce", "Pepperoni", "Mayonnaise", "Mushrooms"};
+    // The toppings of the original menu keep their ids; ones new pizzas bring come after them
+    private static final String[] KNOWN_TOPPINGS = {
+        "Cheese", "Tomato Sauce", "Chicken", "Vegetable", "Pepperoni", "Margherita",
+        "Extra Cheese", "Oniens", "BBQ Sauce", "Mayonnaise", "Mushrooms"
+    };
+    private static final String[] TOPPINGS;
+
+    static {
+        Set<String> toppings = new LinkedHashSet<>(Arrays.asList(KNOWN_TOPPINGS));
+        for (int i = 0; i < MENU.size(); i++) {
+            TYPES[i] = MENU.get(i).getName();
+            SIGNATURE_TOPPINGS[i] = MENU.get(i).getSignatureTopping();
+            toppings.add(SIGNATURE_TOPPINGS[i]);
+        }
+        if (toppings.size() > Long.SIZE) {
+            // toppingMask keeps one bit per topping
+            throw new IllegalStateException("The menu has " + toppings.size() + " toppings, at most " + Long.SIZE + " are supported");
+        }
+        TOPPINGS = toppings.toArray(new String[0]);
+    }
+
+    private static final Map<String, Integer> TYPE_IDS = index(TYPES);
+    private static final Map<String, Integer> SIZE_IDS = index(SIZES);
+    private static final Map<String, Integer> TOPPING_IDS = index(TOPPINGS);
+
+    private PizzaCatalog() {}
+
+    /**
+     * The pizzas in menu order.
+     */
+    static List<MenuItem> menu() {
+        return MENU;
+    }
+
+    static List<String> types() {
+        return Collections.unmodifiableList(Arrays.asList(TYPES));
+    }
+
+    static List<String> sizes() {
+        return Collections.unmodifiableList(Arrays.asList(SIZES));
+    }
+
+    static List<String> toppings() {
+        return Collections.unmodifiableList(Arrays.asList(TOPPINGS));
+    }
+
+    static List<String> extraToppings() {
+        return Collections.unmodifiableList(Arrays.asList(EXTRA_TOPPINGS));
+    }
+
+    static List<String> defaultToppings() {
+        return Collections.unmodifiableList(Arrays.asList(DEFAULT_TOPPINGS));
+    }
+
+    /**
+     * The topping a pizza is named after, e.g. "Chicken" for a Chicken Pizza.
+     */
+    static String signatureTopping(String type) {
+        int id = typeId(type);
+        return id < 0 ? null : SIGNATURE_TOPPINGS[id];
+    }
+
+    /**
+     * @return the id of {@code type}, or -1 if the shop does not sell it
+     */
+    static int typeId(String type) {
+        Integer id = TYPE_IDS.get(type);
+        return id == null ? -1 : id;
+    }
+
+    static int sizeId(String size) {
+        Integer id = SIZE_IDS.get(size);
+        return id == null ? -1 : id;
+    }
+
+    static int toppingId(String topping) {
+        Integer id = TOPPING_IDS.get(topping);
+        return id == null ? -1 : id;
+    }
+
+    static String type(int id) {
+        return TYPES[id];
+    }
+
+    static String size(int id) {
+        return SIZES[id];
+    }
+
+    static String topping(int id) {
+        return TOPPINGS[id];
+    }
+
+    /**
+     * One bit per catalog topping; unknown toppings are ignored.
+     */
+    static long toppingMask(List<String> toppings) {
+        long mask = 0L;
+        for (String topping : toppings) {
+            int id = toppingId(topping);
+            if (id >= 0) {
+                mask |= 1L << id;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * The price of one pizza, as Pizza.display() works it out.
+     */
+    static double unitPrice(int toppingCount) {
+        return BASE_PRICE + toppingCount * TOPPING_PRICE;
+    }
+
+    private static Map<String, Integer> index(String[] names) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,418 @@
+package gui;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sales history of the orders the kitchen completed, kept column-wise in
+ * primitive arrays so reports can sweep millions of pizza lines across all
+ * cores.
+ *
+ * One row per order line. An order is held from ORDER_CONFIRMED and only
+ * becomes a sale at ORDER_COMPLETED, so one that fails in the kitchen, and
+ * has its payment voided, never shows up in revenue. Rows are appended in
+ * time order by the single bus thread that calls {@link #onEvent}; readers
+ * take a snapshot of the column set and its row count and never lock.
+ */
+final class SalesAnalytics implements OrderEventBus.Handler {
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int SPLIT_THRESHOLD = 1 << 15;
+    private static final int SLOTS_PER_DAY = 24 * 4;
+
+    private static SalesAnalytics shared;
+
+    /**
+     * The analytics instance fed by the shared OrderEventBus.
+     */
+    static synchronized SalesAnalytics shared() {
+        if (shared == null) {
+            shared = new SalesAnalytics(ZoneId.systemDefault());
+            OrderEventBus.shared().subscribeGating("analytics", shared);
+        }
+        return shared;
+    }
+
+    private final ZoneId zone;
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+    private volatile int orders;
+    // Confirmed orders still in the kitchen; bus thread only
+    private final Map<Integer, Order> inKitchen = new HashMap<>();
+
+    SalesAnalytics(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    @Override
+    public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case ORDER_CONFIRMED:
+                if (event.getOrder() != null) {
+                    inKitchen.put(event.getOrderId(), event.getOrder());
+                }
+                break;
+            case ORDER_COMPLETED:
+                Order made = inKitchen.remove(event.getOrderId());
+                if (made != null) {
+                    record(made, event.getTimestamp());
+                }
+                break;
+            case ORDER_FAILED:
+            case ORDER_DECLINED:
+                inKitchen.remove(event.getOrderId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Appends the lines of one completed order. Single writer only.
+     */
+    void record(Order order, long timestampMillis) {
+        int minute = (int) TimeUnit.MILLISECONDS.toMinutes(timestampMillis);
+        for (OrderLine line : order.getLines()) {
+            Columns c = columns;
+            if (c.rows == c.typeId.length) {
+                c = c.grow();
+                columns = c;
+            }
+            int row = c.rows;
+            c.orderId[row] = order.getOrderId();
+            c.typeId[row] = (byte) PizzaCatalog.typeId(line.getType());
+            c.sizeId[row] = (byte) PizzaCatalog.sizeId(line.getSize());
+            c.toppings[row] = PizzaCatalog.toppingMask(line.getToppings());
+            c.quantity[row] = (short) line.getQuantity();
+            c.priceCents[row] = OrderEvent.toCents(line.getUnitPrice());
+            c.minute[row] = minute;
+            c.rows = row + 1;
+        }
+        orders++;
+    }
+
+    int lineCount() {
+        return columns.rows;
+    }
+
+    int orderCount() {
+        return orders;
+    }
+
+    /**
+     * Aggregates over the lines completed in [fromMillis, toMillis).
+     */
+    Summary summarize(long fromMillis, long toMillis) {
+        Columns c = columns;
+        int n = c.rows;
+        int from = c.firstRowAtOrAfter((int) TimeUnit.MILLISECONDS.toMinutes(fromMillis), n);
+        int to = c.firstRowAtOrAfter((int) TimeUnit.MILLISECONDS.toMinutes(toMillis), n);
+        int offsetMinutes = zone.getRules().getOffset(Instant.ofEpochMilli(fromMillis)).getTotalSeconds() / 60;
+        return ForkJoinPool.commonPool().invoke(new SummaryTask(c, from, to, offsetMinutes));
+    }
+
+    /**
+     * The lines completed in [fromMillis, toMillis), read in place. Lines
+     * recorded afterwards are not included.
+     */
+    Lines lines(long fromMillis, long toMillis) {
+        Columns c = columns;
+        int n = c.rows;
+        return new Lines(c, c.firstRowAtOrAfter((int) TimeUnit.MILLISECONDS.toMinutes(fromMillis), n),
+                c.firstRowAtOrAfter((int) TimeUnit.MILLISECONDS.toMinutes(toMillis), n));
+    }
+
+    Lines lines(LocalDate day) {
+        return lines(day.atStartOfDay(zone).toInstant().toEpochMilli(),
+                day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+    }
+
+    Summary summarize(LocalDate day) {
+        return summarize(day.atStartOfDay(zone).toInstant().toEpochMilli(),
+                day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+    }
+
+    Summary summarize(YearMonth month) {
+        return summarize(month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli());
+    }
+
+    String dailyReport(LocalDate day) {
+        return summarize(day).format("End of day report " + day);
+    }
+
+    String monthlyReport(YearMonth month) {
+        return summarize(month).format("End of month report " + month);
+    }
+
+    // Parallel column arrays; only the writer touches indexes at or beyond rows
+    private static final class Columns {
+
+        final int[] orderId;
+        final byte[] typeId;
+        final byte[] sizeId;
+        final long[] toppings;
+        final short[] quantity;
+        final long[] priceCents;
+        final int[] minute;
+        volatile int rows;
+
+        Columns(int capacity) {
+            orderId = new int[capacity];
+            typeId = new byte[capacity];
+            sizeId = new byte[capacity];
+            toppings = new long[capacity];
+            quantity = new short[capacity];
+            priceCents = new long[capacity];
+            minute = new int[capacity];
+        }
+
+        Columns grow() {
+            Columns bigger = new Columns(typeId.length * 2);
+            int n = rows;
+            System.arraycopy(orderId, 0, bigger.orderId, 0, n);
+            System.arraycopy(typeId, 0, bigger.typeId, 0, n);
+            System.arraycopy(sizeId, 0, bigger.sizeId, 0, n);
+            System.arraycopy(toppings, 0, bigger.toppings, 0, n);
+            System.arraycopy(quantity, 0, bigger.quantity, 0, n);
+            System.arraycopy(priceCents, 0, bigger.priceCents, 0, n);
+            System.arraycopy(minute, 0, bigger.minute, 0, n);
+            bigger.rows = n;
+            return bigger;
+        }
+
+        // Rows are in time order, so a time range is a contiguous row range
+        int firstRowAtOrAfter(int targetMinute, int n) {
+            int low = 0;
+            int high = n;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (minute[mid] < targetMinute) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // A row range of one column set; rows below the count never change
+    static final class Lines {
+
+        private final Columns c;
+        private final int from;
+        private final int to;
+
+        Lines(Columns c, int from, int to) {
+            this.c = c;
+            this.from = from;
+            this.to = to;
+        }
+
+        int size() {
+            return to - from;
+        }
+
+        int orderId(int i) {
+            return c.orderId[from + i];
+        }
+
+        /**
+         * Minutes since the epoch at which the order was completed.
+         */
+        int minute(int i) {
+            return c.minute[from + i];
+        }
+
+        int typeId(int i) {
+            return c.typeId[from + i];
+        }
+
+        int sizeId(int i) {
+            return c.sizeId[from + i];
+        }
+
+        long toppings(int i) {
+            return c.toppings[from + i];
+        }
+
+        int quantity(int i) {
+            return c.quantity[from + i];
+        }
+
+        long priceCents(int i) {
+            return c.priceCents[from + i];
+        }
+    }
+
+    static final class Summary {
+
+        private final int sizes = PizzaCatalog.sizes().size();
+        final long[] revenueByHourAndSize = new long[24 * sizes];
+        final long[] pizzasByTopping = new long[PizzaCatalog.toppings().size()];
+        final long[] pizzasByType = new long[PizzaCatalog.types().size()];
+        final long[] revenueByQuarterHour = new long[SLOTS_PER_DAY];
+        long revenueCents;
+        long pizzas;
+        long lines;
+        int orders;
+        private int lastOrder;
+
+        void add(Columns c, int row, int offsetMinutes) {
+            long value = c.priceCents[row] * c.quantity[row];
+            int localMinute = Math.floorMod(c.minute[row] + offsetMinutes, 24 * 60);
+            int size = c.sizeId[row];
+            if (size >= 0) {
+                revenueByHourAndSize[(localMinute / 60) * sizes + size] += value;
+            }
+            int type = c.typeId[row];
+            if (type >= 0) {
+                pizzasByType[type] += c.quantity[row];
+            }
+            long mask = c.toppings[row];
+            while (mask != 0) {
+                int topping = Long.numberOfTrailingZeros(mask);
+                pizzasByTopping[topping] += c.quantity[row];
+                mask &= mask - 1;
+            }
+            revenueByQuarterHour[localMinute / 15] += value;
+            revenueCents += value;
+            pizzas += c.quantity[row];
+            lines++;
+            // Lines of one order are adjacent, so counting id changes counts orders
+            if (c.orderId[row] != lastOrder || orders == 0) {
+                orders++;
+                lastOrder = c.orderId[row];
+            }
+        }
+
+        Summary merge(Summary right, Columns c, int boundary) {
+            int leftOrders = orders;
+            for (int i = 0; i < revenueByHourAndSize.length; i++) {
+                revenueByHourAndSize[i] += right.revenueByHourAndSize[i];
+            }
+            for (int i = 0; i < pizzasByTopping.length; i++) {
+                pizzasByTopping[i] += right.pizzasByTopping[i];
+            }
+            for (int i = 0; i < pizzasByType.length; i++) {
+                pizzasByType[i] += right.pizzasByType[i];
+            }
+            for (int i = 0; i < revenueByQuarterHour.length; i++) {
+                revenueByQuarterHour[i] += right.revenueByQuarterHour[i];
+            }
+            revenueCents += right.revenueCents;
+            pizzas += right.pizzas;
+            lines += right.lines;
+            orders += right.orders;
+            // An order split across the two halves was counted twice
+            if (leftOrders > 0 && right.orders > 0 && c.orderId[boundary - 1] == c.orderId[boundary]) {
+                orders--;
+            }
+            return this;
+        }
+
+        double revenue() {
+            return revenueCents / 100.0;
+        }
+
+        double averageBasket() {
+            return orders == 0 ? 0.0 : revenueCents / 100.0 / orders;
+        }
+
+        double revenue(int hour, int sizeId) {
+            return revenueByHourAndSize[hour * sizes + sizeId] / 100.0;
+        }
+
+        /**
+         * Start minute-of-day of the {@code count} busiest quarter hours.
+         */
+        int[] peakQuarterHours(int count) {
+            Integer[] slots = new Integer[SLOTS_PER_DAY];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = i;
+            }
+            Arrays.sort(slots, (a, b) -> Long.compare(revenueByQuarterHour[b], revenueByQuarterHour[a]));
+            int[] peaks = new int[Math.min(count, slots.length)];
+            for (int i = 0; i < peaks.length; i++) {
+                peaks[i] = slots[i] * 15;
+            }
+            return peaks;
+        }
+
+        String format(String title) {
+            StringBuilder report = new StringBuilder(title).append('\n');
+            report.append(String.format("Orders: %d, Pizzas: %d, Revenue: Rs %.2f, Average basket: Rs %.2f%n",
+                    orders, pizzas, revenue(), averageBasket()));
+            report.append("\nRevenue per hour and size\n");
+            for (int hour = 0; hour < 24; hour++) {
+                long hourTotal = 0;
+                for (int size = 0; size < sizes; size++) {
+                    hourTotal += revenueByHourAndSize[hour * sizes + size];
+                }
+                if (hourTotal == 0) {
+                    continue;
+                }
+                report.append(String.format("%02d:00", hour));
+                for (int size = 0; size < sizes; size++) {
+                    report.append(String.format("  %s Rs %.2f", PizzaCatalog.size(size), revenue(hour, size)));
+                }
+                report.append('\n');
+            }
+            report.append("\nPizzas by type\n");
+            for (int type = 0; type < pizzasByType.length; type++) {
+                report.append(String.format("%s: %d%n", PizzaCatalog.type(type), pizzasByType[type]));
+            }
+            report.append("\nTopping popularity\n");
+            for (int topping = 0; topping < pizzasByTopping.length; topping++) {
+                report.append(String.format("%s: %d%n", PizzaCatalog.topping(topping), pizzasByTopping[topping]));
+            }
+            report.append("\nPeak periods\n");
+            for (int start : peakQuarterHours(3)) {
+                long cents = revenueByQuarterHour[start / 15];
+                if (cents > 0) {
+                    report.append(String.format("%02d:%02d Rs %.2f%n", start / 60, start % 60, cents / 100.0));
+                }
+            }
+            return report.toString();
+        }
+    }
+
+    private static final class SummaryTask extends RecursiveTask<Summary> {
+
+        private final Columns columns;
+        private final int from;
+        private final int to;
+        private final int offsetMinutes;
+
+        SummaryTask(Columns columns, int from, int to, int offsetMinutes) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+            this.offsetMinutes = offsetMinutes;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                Summary summary = new Summary();
+                for (int row = from; row < to; row++) {
+                    summary.add(columns, row, offsetMinutes);
+                }
+                return summary;
+            }
+            int mid = (from + to) >>> 1;
+            SummaryTask left = new SummaryTask(columns, from, mid, offsetMinutes);
+            left.fork();
+            Summary right = new SummaryTask(columns, mid, to, offsetMinutes).compute();
+            return left.join().merge(right, columns, mid);
+        }
+    }
+}
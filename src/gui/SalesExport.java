@@ -0,0 +1,234 @@
+package gui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * End-of-day export of completed order lines for accounting.
+ *
+ * Reads the day's rows from SalesAnalytics in place and streams them through
+ * one fixed buffer, both as CSV and as a compact columnar file, so memory
+ * stays flat however busy the day was. Exports run one at a time on their
+ * own thread and each file is renamed into place once complete.
+ *
+ * The columnar file is big-endian: magic, version, the day's bounds in epoch
+ * millis, the row count, the type, size and topping names the ids refer to,
+ * then each column in full: order id (int), minute (int), type (byte), size
+ * (byte), topping mask (long), quantity (short), unit price in cents (long).
+ */
+final class SalesExport {
+
+    static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("syzygy.exportDir",
+            System.getProperty("user.home") + "/.syzygy/exports"));
+
+    private static final int MAGIC = 0x53595a02;
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private static final ExecutorService EXPORTER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sales-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SalesAnalytics analytics;
+    private final ZoneId zone;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    SalesExport(SalesAnalytics analytics, ZoneId zone) {
+        this.analytics = analytics;
+        this.zone = zone;
+    }
+
+    /**
+     * Exports {@code day} from the shared analytics into {@code directory} in
+     * the background.
+     *
+     * @return the CSV and columnar files written
+     */
+    static CompletableFuture<List<Path>> exportAsync(LocalDate day, Path directory) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new SalesExport(SalesAnalytics.shared(), ZoneId.systemDefault()).export(day, directory);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not export " + day, e);
+            }
+        }, EXPORTER);
+    }
+
+    List<Path> export(LocalDate day, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SalesAnalytics.Lines lines = analytics.lines(day);
+        Path csv = directory.resolve("sales-" + day + ".csv");
+        Path columnar = directory.resolve("sales-" + day + ".col");
+        writeAtomically(csv, channel -> writeCsv(lines, channel));
+        long from = day.atStartOfDay(zone).toInstant().toEpochMilli();
+        long to = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        writeAtomically(columnar, channel -> writeColumns(lines, from, to, channel));
+        return Arrays.asList(csv, columnar);
+    }
+
+    void writeCsv(SalesAnalytics.Lines lines, FileChannel channel) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        StringBuilder text = new StringBuilder(BUFFER_SIZE);
+        text.append("order_id,completed_at,type,size,toppings,quantity,unit_price,line_total\n");
+        int lastMinute = Integer.MIN_VALUE;
+        String completedAt = "";
+        buffer.clear();
+        for (int i = 0; i < lines.size(); i++) {
+            // Rows are in time order, so most rows reuse the last timestamp
+            if (lines.minute(i) != lastMinute) {
+                lastMinute = lines.minute(i);
+                completedAt = MINUTE_FORMAT.format(Instant.ofEpochSecond(lastMinute * 60L).atZone(zone));
+            }
+            long price = lines.priceCents(i);
+            text.append(lines.orderId(i)).append(',')
+                    .append(completedAt).append(',')
+                    .append(name(lines.typeId(i), true)).append(',')
+                    .append(name(lines.sizeId(i), false)).append(',');
+            appendToppings(text, lines.toppings(i));
+            text.append(',').append(lines.quantity(i)).append(',');
+            appendCents(text, price).append(',');
+            appendCents(text, price * lines.quantity(i)).append('\n');
+            if (text.length() >= BUFFER_SIZE - 512) {
+                encode(encoder, text, channel);
+            }
+        }
+        encode(encoder, text, channel);
+        drain(channel);
+    }
+
+    void writeColumns(SalesAnalytics.Lines lines, long fromMillis, long toMillis, FileChannel channel) throws IOException {
+        int rows = lines.size();
+        buffer.clear();
+        buffer.putInt(MAGIC).putShort(VERSION).putLong(fromMillis).putLong(toMillis).putInt(rows);
+        putNames(channel, PizzaCatalog.types());
+        putNames(channel, PizzaCatalog.sizes());
+        putNames(channel, PizzaCatalog.toppings());
+        for (int i = 0; i < rows; i++) {
+            room(channel, Integer.BYTES).putInt(lines.orderId(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Integer.BYTES).putInt(lines.minute(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Byte.BYTES).put((byte) lines.typeId(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Byte.BYTES).put((byte) lines.sizeId(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Long.BYTES).putLong(lines.toppings(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Short.BYTES).putShort((short) lines.quantity(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            room(channel, Long.BYTES).putLong(lines.priceCents(i));
+        }
+        drain(channel);
+    }
+
+    private void putNames(FileChannel channel, List<String> names) throws IOException {
+        room(channel, Short.BYTES).putShort((short) names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            room(channel, Short.BYTES + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    // Makes room for bytes more, writing out what is buffered if needed
+    private ByteBuffer room(FileChannel channel, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel);
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    private void drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void encode(CharsetEncoder encoder, StringBuilder text, FileChannel channel) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (chars.hasRemaining()) {
+            encoder.encode(chars, buffer, false);
+            drain(channel);
+            buffer.clear();
+        }
+        text.setLength(0);
+    }
+
+    private static String name(int id, boolean type) {
+        if (id < 0) {
+            return "";
+        }
+        return type ? PizzaCatalog.type(id) : PizzaCatalog.size(id);
+    }
+
+    private static void appendToppings(StringBuilder text, long mask) {
+        boolean first = true;
+        while (mask != 0) {
+            if (!first) {
+                text.append(';');
+            }
+            text.append(PizzaCatalog.topping(Long.numberOfTrailingZeros(mask)));
+            mask &= mask - 1;
+            first = false;
+        }
+    }
+
+    private static StringBuilder appendCents(StringBuilder text, long cents) {
+        long abs = Math.abs(cents);
+        if (cents < 0) {
+            text.append('-');
+        }
+        text.append(abs / 100).append('.');
+        if (abs % 100 < 10) {
+            text.append('0');
+        }
+        return text.append(abs % 100);
+    }
+
+    private interface ChannelWriter {
+
+        void write(FileChannel channel) throws IOException;
+    }
+
+    private static void writeAtomically(Path file, ChannelWriter writer) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer.write(channel);
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package gui;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every customer currently ordering, whether at a till, a kiosk or on the
+ * web, keyed by an unguessable session id.
+ *
+ * Lookups are a single hash probe. Sessions left idle longer than
+ * {@code syzygy.session.idleMinutes} (default 30) with nothing in the
+ * kitchen are evicted, and the stock their carts held goes back to the
+ * Inventory.
+ */
+final class SessionRegistry {
+
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private static SessionRegistry shared;
+
+    static synchronized SessionRegistry shared() {
+        if (shared == null) {
+            shared = new SessionRegistry(TimeUnit.MINUTES.toMillis(Long.getLong("syzygy.session.idleMinutes", 30)));
+            shared.start(30, TimeUnit.SECONDS);
+        }
+        return shared;
+    }
+
+    private final long idleMillis;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    SessionRegistry(long idleMillis) {
+        this.idleMillis = idleMillis;
+    }
+
+    void start(long interval, TimeUnit unit) {
+        evictor.scheduleWithFixedDelay(() -> {
+            try {
+                evictIdle(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                Log.error("Session eviction failed", e);
+            }
+        }, interval, interval, unit);
+    }
+
+    Session open(String customerName) {
+        byte[] token = new byte[16];
+        IDS.nextBytes(token);
+        StringBuilder id = new StringBuilder(32);
+        for (byte b : token) {
+            id.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        Session session = new Session(id.toString(), customerName);
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    /**
+     * @return the session, or null if it was closed or evicted
+     */
+    Session find(String id) {
+        Session session = sessions.get(id);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session; stock still reserved by its cart is released.
+     */
+    void close(Session session) {
+        if (sessions.remove(session.getId(), session)) {
+            session.ended(false);
+        }
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return how many sessions were evicted
+     */
+    int evictIdle(long nowMillis) {
+        int evicted = 0;
+        for (Session session : sessions.values()) {
+            if (nowMillis - session.getLastActive() >= idleMillis && !session.hasOrdersInFlight()
+                    && sessions.remove(session.getId(), session)) {
+                session.ended(true);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+}
+
+/**
+ * One customer's visit: who they are, what is in their cart and which of
+ * their orders are still in the kitchen. Uncontended apart from the
+ * evictor, so plain synchronization is enough.
+ */
+final class Session {
+
+    private final String id;
+    private final String customerName;
+    private final long createdAt = System.currentTimeMillis();
+    private final Set<Order> inFlight = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> evictionListeners = new CopyOnWriteArrayList<>();
+    private List<OrderLine> cart = Collections.emptyList();
+    private volatile long lastActive = createdAt;
+    private volatile boolean ended;
+
+    Session(String id, String customerName) {
+        this.id = id;
+        this.customerName = customerName;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getCustomerName() {
+        return customerName;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    boolean isEnded() {
+        return ended;
+    }
+
+    void touch() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    synchronized List<OrderLine> getCart() {
+        return cart;
+    }
+
+    synchronized void setCart(List<OrderLine> lines) {
+        cart = Collections.unmodifiableList(new ArrayList<>(lines));
+        touch();
+    }
+
+    synchronized void addToCart(OrderLine line) {
+        List<OrderLine> lines = new ArrayList<>(cart.size() + 1);
+        lines.addAll(cart);
+        lines.add(line);
+        cart = Collections.unmodifiableList(lines);
+        touch();
+    }
+
+    /**
+     * Empties the cart, e.g. at checkout.
+     *
+     * @return what was in it
+     */
+    synchronized List<OrderLine> takeCart() {
+        List<OrderLine> lines = cart;
+        cart = Collections.emptyList();
+        touch();
+        return lines;
+    }
+
+    void orderSent(Order order) {
+        inFlight.add(order);
+        touch();
+    }
+
+    void orderFinished(Order order) {
+        inFlight.remove(order);
+        touch();
+    }
+
+    boolean hasOrdersInFlight() {
+        return !inFlight.isEmpty();
+    }
+
+    Set<Order> getOrdersInFlight() {
+        return Collections.unmodifiableSet(inFlight);
+    }
+
+    /**
+     * Runs {@code listener} if this session is evicted for being idle.
+     */
+    void onEvicted(Runnable listener) {
+        evictionListeners.add(listener);
+    }
+
+    void ended(boolean evicted) {
+        ended = true;
+        for (OrderLine line : takeCart()) {
+            Inventory.shared().release(line.getToppings(), line.getQuantity());
+        }
+        if (evicted) {
+            for (Runnable listener : evictionListeners) {
+                listener.run();
+            }
+        }
+    }
+}
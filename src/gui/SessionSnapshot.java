@@ -0,0 +1,328 @@
+package gui;
+
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.JFrame;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Keeps the open carts and the orders still going through the pipeline in a
+ * small binary file, so a restarted till comes back where it left off.
+ * Orders that were paid for keep their payment, loyalty points and pickup
+ * time and go on without paying again; the rest come back as cart lines.
+ * Each cart is saved under the customer it belongs to and only comes back
+ * into a window opened for that customer.
+ *
+ * The cart is copied on the EDT (cheap) when it has changed, and the file is
+ * written on a background thread to a temporary name and renamed over the
+ * old one, so a crash mid-write never leaves a torn snapshot behind.
+ */
+final class SessionSnapshot {
+
+    static final Path DEFAULT_FILE = Paths.get(System.getProperty("syzygy.snapshot",
+            System.getProperty("user.home") + "/.syzygy/session.snap"));
+
+    static final int SAVE_INTERVAL_MILLIS = 2000;
+
+    private static final int MAGIC = 0x53595a01;
+    private static final short VERSION = 4;
+
+    private static final SessionSnapshot SHARED = new SessionSnapshot(DEFAULT_FILE);
+
+    static SessionSnapshot shared() {
+        return SHARED;
+    }
+
+    private final Path file;
+    private final Set<Order> pending = ConcurrentHashMap.newKeySet();
+    // Carts on screen, and saved ones waiting for their customer to log in again, by customer key
+    private final Map<DefaultTableModel, Cart> open = new ConcurrentHashMap<>();
+    private final Map<String, List<OrderLine>> saved = new ConcurrentHashMap<>();
+    private final List<Order> paidToResume = new ArrayList<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "session-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean loaded;
+    private volatile boolean shutdownHookInstalled;
+
+    SessionSnapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Starts saving {@code model} as the cart of {@code customer}
+     * periodically and when {@code frame} closes. Must be called on the EDT.
+     */
+    void attach(JFrame frame, DefaultTableModel model, String customer) {
+        Cart cart = new Cart(key(customer), capture(model));
+        open.put(model, cart);
+        AtomicBoolean changed = new AtomicBoolean();
+        model.addTableModelListener(e -> changed.set(true));
+        Timer timer = new Timer(SAVE_INTERVAL_MILLIS, e -> {
+            if (changed.getAndSet(false) | dirty.getAndSet(false)) {
+                cart.lines = capture(model);
+                writer.execute(this::saveQuietly);
+            }
+        });
+        timer.start();
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                timer.stop();
+                // Kept for the customer's next visit, in this run or the next
+                open.remove(model);
+                List<OrderLine> lines = capture(model);
+                if (!lines.isEmpty()) {
+                    saved.merge(cart.owner, lines, SessionSnapshot::concat);
+                }
+                // The shutdown hook waits for this write and saves once more behind it
+                writer.execute(SessionSnapshot.this::saveQuietly);
+            }
+        });
+        installShutdownHook();
+    }
+
+    /**
+     * Records an order that has left the cart but not yet the pipeline.
+     */
+    void trackPending(Order order) {
+        pending.add(order);
+        dirty.set(true);
+    }
+
+    void untrackPending(Order order) {
+        pending.remove(order);
+        dirty.set(true);
+    }
+
+    /**
+     * Puts the saved cart of {@code customer} back into {@code model} in one
+     * batch. The first call also hands each paid order that had not
+     * finished to {@code resume}. Unpaid orders that were mid-pipeline come
+     * back as cart lines of their customer so they can be sent again.
+     *
+     * @return number of lines restored to the cart
+     */
+    int restoreInto(DefaultTableModel model, String customer, Consumer<Order> resume) {
+        List<Order> paid;
+        synchronized (this) {
+            if (!loaded) {
+                loaded = true;
+                try {
+                    load();
+                } catch (NoSuchFileException e) {
+                    // First run
+                } catch (IOException e) {
+                    Log.error("Could not restore the last carts", e);
+                }
+            }
+            paid = new ArrayList<>(paidToResume);
+            paidToResume.clear();
+        }
+        List<OrderLine> lines = saved.remove(key(customer));
+        if (lines != null) {
+            Shop.addCartRows(model, lines);
+        }
+        for (Order order : paid) {
+            resume.accept(order);
+        }
+        return lines == null ? 0 : lines.size();
+    }
+
+    static List<OrderLine> capture(DefaultTableModel model) {
+        List<OrderLine> lines = new ArrayList<>(model.getRowCount());
+        for (int row = 0; row < model.getRowCount(); row++) {
+            lines.add(line(model, row));
+        }
+        return lines;
+    }
+
+    /**
+     * One row of a cart table: type, size, toppings, quantity, unit price.
+     */
+    @SuppressWarnings("unchecked")
+    static OrderLine line(DefaultTableModel model, int row) {
+        return new OrderLine(model.getValueAt(row, 0).toString(), model.getValueAt(row, 1).toString(),
+                (List<String>) model.getValueAt(row, 2), Integer.parseInt(model.getValueAt(row, 3).toString()),
+                Double.parseDouble(model.getValueAt(row, 4).toString()));
+    }
+
+    private synchronized void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            Log.error("Could not save the cart", e);
+        }
+    }
+
+    private void save() throws IOException {
+        Map<String, List<OrderLine>> carts = new LinkedHashMap<>(saved);
+        for (Cart cart : open.values()) {
+            carts.merge(cart.owner, cart.lines, SessionSnapshot::concat);
+        }
+        List<Order> paid = new ArrayList<>();
+        for (Order order : pending) {
+            if (order.getPaymentReference() != null) {
+                paid.add(order);
+            } else {
+                carts.merge(key(order.getCustomerName()), order.getLines(), SessionSnapshot::concat);
+            }
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            int nonEmpty = 0;
+            for (List<OrderLine> lines : carts.values()) {
+                nonEmpty += lines.isEmpty() ? 0 : 1;
+            }
+            out.writeInt(nonEmpty);
+            for (Map.Entry<String, List<OrderLine>> cart : carts.entrySet()) {
+                if (!cart.getValue().isEmpty()) {
+                    out.writeUTF(cart.getKey());
+                    writeLines(out, cart.getValue());
+                }
+            }
+            out.writeInt(paid.size());
+            for (Order order : paid) {
+                out.writeUTF(order.getCustomerName());
+                out.writeUTF(order.getPaymentReference());
+                out.writeLong(order.getPaymentId());
+                out.writeLong(order.getRedeemedPoints());
+                out.writeLong(order.getPickupAt());
+                writeLines(out, order.getLines());
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeLines(DataOutputStream out, List<OrderLine> lines) throws IOException {
+        out.writeInt(lines.size());
+        for (OrderLine line : lines) {
+            out.writeUTF(line.getType());
+            out.writeUTF(line.getSize());
+            out.writeByte(line.getToppings().size());
+            for (String topping : line.getToppings()) {
+                out.writeUTF(topping);
+            }
+            out.writeShort(line.getQuantity());
+            out.writeDouble(line.getUnitPrice());
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            short version = in.readInt() == MAGIC ? in.readShort() : -1;
+            if (version != 3 && version != VERSION) {
+                throw new IOException("Not a session snapshot: " + file);
+            }
+            in.readLong();
+            if (version == 3) {
+                // Saved before carts had an owner, so there is no telling whose it was
+                int dropped = readLines(in).size();
+                if (dropped > 0) {
+                    Log.info("Dropped %d cart lines saved without their customer", dropped);
+                }
+            } else {
+                for (int count = in.readInt(); count > 0; count--) {
+                    String owner = in.readUTF();
+                    saved.merge(owner, readLines(in), SessionSnapshot::concat);
+                }
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                String customer = in.readUTF();
+                String paymentReference = in.readUTF();
+                long paymentId = in.readLong();
+                long redeemedPoints = in.readLong();
+                long pickupAt = in.readLong();
+                Order order = new Order(customer, readLines(in));
+                order.setPaymentReference(paymentReference);
+                order.setPaymentId(paymentId);
+                order.setRedeemedPoints(redeemedPoints);
+                order.setPickupAt(pickupAt);
+                paidToResume.add(order);
+            }
+        }
+    }
+
+    private static List<OrderLine> readLines(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<OrderLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = in.readUTF();
+            String size = in.readUTF();
+            int toppingCount = in.readUnsignedByte();
+            List<String> toppings = new ArrayList<>(toppingCount);
+            for (int t = 0; t < toppingCount; t++) {
+                // Flyweight Pattern
+                toppings.add(IngredientFactory.createIngredient(in.readUTF()).getIngredient());
+            }
+            lines.add(new OrderLine(type, size, toppings, in.readUnsignedShort(), in.readDouble()));
+        }
+        return lines;
+    }
+
+    private static String key(String customer) {
+        return customer == null ? "" : customer.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static List<OrderLine> concat(List<OrderLine> first, List<OrderLine> second) {
+        List<OrderLine> both = new ArrayList<>(first.size() + second.size());
+        both.addAll(first);
+        both.addAll(second);
+        return both;
+    }
+
+    private synchronized void installShutdownHook() {
+        if (shutdownHookInstalled) {
+            return;
+        }
+        shutdownHookInstalled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveQuietly, "session-snapshot-shutdown"));
+    }
+
+    // A cart on screen; lines are replaced on the EDT and read by the writer
+    private static final class Cart {
+
+        final String owner;
+        volatile List<OrderLine> lines;
+
+        Cart(String owner, List<OrderLine> lines) {
+            this.owner = owner;
+            this.lines = lines;
+        }
+    }
+}
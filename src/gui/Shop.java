@@ -7,15 +7,37 @@ package gui;
 import com.formdev.flatlaf.IntelliJTheme;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JDialog;
+import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 
 /**
@@ -24,15 +46,168 @@ import javax.swing.table.DefaultTableModel;
  */
 public class Shop extends javax.swing.JFrame {
 
+    private Session session;
+
     /**
      * Creates new form Shop
      */
     public Shop() {
+        this(SessionRegistry.shared().open("Guest"));
+    }
+
+    public Shop(Session session) {
         initComponents();
+        menuGrid.setSelectedIndex(0);
+        installShortcuts();
+        watchStock();
+        OrderEventConsumers.install();
+        DefaultTableModel cart = (DefaultTableModel) jTable1.getModel();
+        List<Order> paid = new ArrayList<>();
+        if (SessionSnapshot.shared().restoreInto(cart, session.getCustomerName(), paid::add) > 0) {
+            for (OrderLine line : SessionSnapshot.capture(cart)) {
+                Inventory.shared().reserve(line.getToppings(), line.getQuantity());
+            }
+        }
+        SessionSnapshot.shared().attach(this, cart, session.getCustomerName());
+        cart.addTableModelListener(e -> this.session.setCart(SessionSnapshot.capture(cart)));
+        useSession(session);
+        for (Order order : paid) {
+            resume(order);
+        }
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                // Puts back the stock the cart still holds; the snapshot keeps the lines
+                SessionRegistry.shared().close(Shop.this.session);
+            }
+        });
+    }
+
+    // The cart table is the session's cart on screen
+    private void useSession(Session session) {
+        this.session = session;
+        jLabel10.setText(session.getCustomerName());
+        session.setCart(SessionSnapshot.capture((DefaultTableModel) jTable1.getModel()));
+        // The registry has already put the stock back, so only the rows go; a closed window lets it end
+        session.onEvicted(() -> SwingUtilities.invokeLater(() -> {
+            if (!isDisplayable()) {
+                return;
+            }
+            useSession(SessionRegistry.shared().open(session.getCustomerName()));
+            ((DefaultTableModel) jTable1.getModel()).setRowCount(0);
+        }));
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    JTable cartTable() {
+        return jTable1;
+    }
+
+    // Builds the mediator an order is sent through
+    private static Customer newCustomer(String username) {
+        // Mediator Pattern
+        OrderManager orderManager = new OrderManager();
+
+        Customer customer = new Customer(username);
+
+        OrderMediator orderMediator = new OrderMediator(orderManager, customer);
+
+        orderManager.setOrderMediator(orderMediator);
+        customer.setOrderMediator(orderMediator);
+        return customer;
+    }
+
+    // A paid order the till closed on; it goes on without paying again, booked again if its pickup time is still to come
+    private void resume(Order order) {
+        for (OrderLine line : order.getLines()) {
+            Inventory.shared().reserve(line.getToppings(), line.getQuantity());
+        }
+        Customer customer = newCustomer(order.getCustomerName());
+        SessionSnapshot.shared().trackPending(order);
+        session.orderSent(order);
+        long now = System.currentTimeMillis();
+        long bookedFor = order.getPickupAt();
+        if (bookedFor <= now) {
+            sendPaid(session, customer, order);
+            return;
+        }
+        SlotBooking slots = SlotBooking.shared();
+        SlotBooking.Booking booking = slots.reserve(order, bookedFor);
+        if (booking == null) {
+            // Taken while the till was closed; the next free time after it, rather than cooking it hours early
+            List<Long> later = slots.freeTimes(order.getItemCount(), bookedFor, 1, now);
+            if (!later.isEmpty()) {
+                booking = slots.reserve(order, later.get(0));
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE hh:mm a");
+        String booked = format.format(new Date(bookedFor));
+        if (booking == null) {
+            sendPaid(session, customer, order);
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "The booking of " + order.getCustomerName() + " for " + booked
+                    + " could not be kept and there is no later time free.\nTheir Pizza Order has been sent to the kitchen now.",
+                    "Warning", JOptionPane.WARNING_MESSAGE));
+            return;
+        }
+        order.setPickupAt(booking.getPickupAt());
+        booking.confirm(() -> sendPaid(session, customer, order));
+        if (booking.getPickupAt() != bookedFor) {
+            String moved = format.format(new Date(booking.getPickupAt()));
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "The booking of " + order.getCustomerName() + " for " + booked
+                    + " could not be kept.\nTheir Pizza Order will now be ready on " + moved + ".",
+                    "Booking Moved", JOptionPane.WARNING_MESSAGE));
+        }
+    }
+
+    private void finished(Session session, Order order) {
+        SessionSnapshot.shared().untrackPending(order);
+        session.orderFinished(order);
+    }
+
+    // Runs checked-out orders off the EDT, one at a time
+    private static final ScheduledExecutorService orderPipeline = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "order-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private JCheckBox[] extraToppingBoxes() {
+        return new JCheckBox[]{jCheckBox1, jCheckBox2, jCheckBox4, jCheckBox5, jCheckBox6, jCheckBox7};
+    }
+
+    // Blocks or frees an extra topping as its stock runs out or comes back, while this window is open
+    private void watchStock() {
+        OrderEventBus.Subscription stock = OrderEventBus.shared().subscribe("shop-stock", (event, sequence, endOfBatch) -> {
+            if (event.getType() == OrderEvent.Type.STOCK_LOW || event.getType() == OrderEvent.Type.STOCK_RESTORED) {
+                String ingredient = event.getText();
+                SwingUtilities.invokeLater(() -> stockChanged(ingredient));
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                stock.close();
+            }
+        });
     }
 
-    public static String username;
-    public static String allOrderList;
+    private void stockChanged(String ingredient) {
+        if (!jCheckBox3.isSelected()) {
+            return;
+        }
+        for (JCheckBox checkBox : extraToppingBoxes()) {
+            if (checkBox.getText().equals(ingredient)) {
+                boolean available = Inventory.shared().isAvailable(ingredient, 1);
+                checkBox.setEnabled(available);
+                if (!available) {
+                    checkBox.setSelected(false);
+                }
+            }
+        }
+    }
 
     public void RemoveExtraTopping() {
         jCheckBox1.setEnabled(false);
@@ -49,8 +224,333 @@ public class Shop extends javax.swing.JFrame {
         jCheckBox7.setSelected(false);
     }
 
+    // Runs on the order pipeline thread
+    private void send(Session session, Customer customer, Order order) {
+        AdmissionDecision decision;
+        try {
+            decision = customer.sendOrder(order);
+        } catch (RuntimeException e) {
+            finished(session, order);
+            throw e;
+        }
+        switch (decision.getOutcome()) {
+            case DEFER:
+                orderPipeline.schedule(() -> send(session, customer, order), decision.getRetryAfterMillis(), TimeUnit.MILLISECONDS);
+                break;
+            case REJECT:
+                // Stock stays reserved for the lines going back into the cart
+                LoyaltyLedger.shared().refund(order);
+                PaymentStage.shared().reverse(order);
+                SwingUtilities.invokeLater(() -> {
+                    addCartRows((DefaultTableModel) jTable1.getModel(), order.getLines());
+                    finished(session, order);
+                });
+                break;
+            default:
+                finished(session, order);
+                break;
+        }
+    }
+
+    // Lets a returning customer put their points towards the order
+    private void offerLoyaltyPoints(Order order) {
+        LoyaltyLedger ledger = LoyaltyLedger.shared();
+        long points = Math.min(ledger.balance(order.getCustomerName()),
+                LoyaltyLedger.pointsToCover(OrderEvent.toCents(order.getTotal())));
+        if (points <= 0) {
+            return;
+        }
+        int option = JOptionPane.showConfirmDialog(this, "You have loyalty points worth Rs " + points * LoyaltyLedger.POINT_VALUE_CENTS / 100
+                + ".\nDo you want to use them for this order?", "Loyalty Points", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if (option == JOptionPane.YES_OPTION) {
+            order.setRedeemedPoints(ledger.redeem(order.getCustomerName(), 0, points));
+        }
+    }
+
+    // Now, or a pickup time the kitchen has room for; null if the customer backs out
+    private Long choosePickupTime(Order order) {
+        String[] options = {"Now", "Book a Time", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this, "When would you like your Pizza Order?", "Order Time",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (choice == 0) {
+            return 0L;
+        }
+        if (choice != 1) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        List<Long> times = SlotBooking.shared().freeTimes(order.getItemCount(), now, 48, now);
+        if (times.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Sorry, there are no free times to book right now.", "Warning", JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE hh:mm a");
+        String[] labels = new String[times.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = format.format(new Date(times.get(i)));
+        }
+        Object picked = JOptionPane.showInputDialog(this, "Pick up your Pizza Order at:", "Book a Time",
+                JOptionPane.QUESTION_MESSAGE, null, labels, labels[0]);
+        return picked == null ? null : times.get(Arrays.asList(labels).indexOf(picked));
+    }
+
+    // Authorizes payment, then sends the order on, or books it if it has a booking; a refused order goes back into the cart
+    private void pay(Session session, Customer customer, Order order, SlotBooking.Booking booking) {
+        PaymentStage.shared().authorize(order).whenComplete((payment, error) -> {
+            if (error == null && payment.isApproved()) {
+                order.setPaymentReference(payment.getAuthCode());
+                order.setPaymentId(payment.getPaymentId());
+                // Saved as paid from now on, so a restart does not charge again
+                SessionSnapshot.shared().trackPending(order);
+                if (booking == null) {
+                    sendPaid(session, customer, order);
+                    return;
+                }
+                booking.confirm(() -> sendPaid(session, customer, order));
+                String pickupAt = new SimpleDateFormat("EEE hh:mm a").format(new Date(booking.getPickupAt()));
+                SwingUtilities.invokeLater(() -> showNotification("Your Pizza Order is booked!\nIt will be ready on " + pickupAt));
+                return;
+            }
+            if (booking != null) {
+                booking.cancel();
+            }
+            String reason = error != null ? error.getMessage() : payment.getMessage();
+            if (payment != null && payment.getOutcome() == AuthorizationResponse.Outcome.FAILED) {
+                // The processor may have approved it and the answer got lost
+                PaymentStage.shared().reverse(payment.getPaymentId());
+            }
+            LoyaltyLedger.shared().refund(order);
+            SwingUtilities.invokeLater(() -> {
+                addCartRows((DefaultTableModel) jTable1.getModel(), order.getLines());
+                finished(session, order);
+                JOptionPane.showMessageDialog(this, "Payment was not authorised (" + reason + ").\nYour Pizzas are back in the Order List.",
+                        "Warning", JOptionPane.WARNING_MESSAGE);
+            });
+        });
+    }
+
+    private void sendPaid(Session session, Customer customer, Order order) {
+        orderPipeline.execute(() -> route(session, customer, order));
+    }
+
+    // Pipeline thread: to the shared kitchen if one is configured with -Dsyzygy.hub=host:port and reachable, else this till's own
+    private void route(Session session, Customer customer, Order order) {
+        HubClient hub = HubClient.shared();
+        if (hub != null) {
+            submitToHub(hub, session, customer, order);
+        } else {
+            send(session, customer, order);
+        }
+    }
+
+    // Sends to the shared kitchen; falls back to this till's own only if the order never left
+    private void submitToHub(HubClient hub, Session session, Customer customer, Order order) {
+        hub.submit(order).whenComplete((reply, error) -> {
+            if (error instanceof HubClient.NotSentException) {
+                orderPipeline.execute(() -> send(session, customer, order));
+                return;
+            }
+            if (error != null) {
+                // The hub may be cooking it already, so sending it again could make it twice
+                Log.warn("Lost the order hub with order for %s in flight", order.getCustomerName(), error);
+                finished(session, order);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "The connection to the kitchen was lost while sending your Pizza Order.\nPlease check with the kitchen before ordering again.",
+                        "Warning", JOptionPane.WARNING_MESSAGE));
+                return;
+            }
+            switch (reply.getOutcome()) {
+                case DEFERRED:
+                    orderPipeline.schedule(() -> route(session, customer, order), reply.getMillis(), TimeUnit.MILLISECONDS);
+                    break;
+                case REJECTED:
+                    LoyaltyLedger.shared().refund(order);
+                    PaymentStage.shared().reverse(order);
+                    SwingUtilities.invokeLater(() -> {
+                        addCartRows((DefaultTableModel) jTable1.getModel(), order.getLines());
+                        finished(session, order);
+                        JOptionPane.showMessageDialog(this, "Sorry, the kitchen is full right now.\nYour Pizzas are back in the Order List, please try again later.",
+                                "Warning", JOptionPane.WARNING_MESSAGE);
+                    });
+                    break;
+                case ACCEPTED:
+                    // The hub's kitchen has been through it; this till keeps the books, so tell its consumers as if it had cooked it here
+                    order.setOrderId(reply.getOrderId());
+                    order.setPredictedReadyAt(reply.getMillis());
+                    Inventory.shared().consume(order);
+                    OrderEventBus bus = OrderEventBus.shared();
+                    bus.publish(OrderEvent.Type.ORDER_CONFIRMED, order);
+                    bus.publish(OrderEvent.Type.ORDER_ETA, order.getOrderId(), order.getPredictedReadyAt(), null);
+                    bus.publish(OrderEvent.Type.ORDER_COMPLETED, order.getOrderId());
+                    finished(session, order);
+                    String readyAt = new SimpleDateFormat("hh:mm a").format(new Date(reply.getMillis()));
+                    SwingUtilities.invokeLater(() -> showNotification("Your Pizza Order #" + reply.getOrderId()
+                            + " is accepted!\nExpected to be ready at " + readyAt));
+                    break;
+                default:
+                    // The hub could not make it
+                    LoyaltyLedger.shared().refund(order);
+                    PaymentStage.shared().reverse(order);
+                    finished(session, order);
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Order Error...", "Warning", JOptionPane.WARNING_MESSAGE));
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Appends {@code lines} to the cart table with a single model event.
+     */
+    static void addCartRows(DefaultTableModel dtm, List<OrderLine> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        int first = dtm.getRowCount();
+        @SuppressWarnings("unchecked")
+        Vector<Vector<Object>> rows = (Vector<Vector<Object>>) (Vector<?>) dtm.getDataVector();
+        for (OrderLine line : lines) {
+            Vector<Object> row = new Vector<>(5);
+            row.add(line.getType());
+            row.add(line.getSize());
+            row.add(new ArrayList<>(line.getToppings()));
+            row.add(Integer.toString(line.getQuantity()));
+            row.add(line.getUnitPrice());
+            rows.add(row);
+        }
+        dtm.fireTableRowsInserted(first, dtm.getRowCount() - 1);
+    }
+
+    private void installShortcuts() {
+        // Ctrl+K opens the live kitchen view, or brings it to the front
+        getRootPane().registerKeyboardAction(e -> KitchenDashboard.showShared(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_K, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        // Ctrl+R shows today's sales report
+        getRootPane().registerKeyboardAction(e -> showReport(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_R, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        // Ctrl+I imports a bulk order file into the cart
+        getRootPane().registerKeyboardAction(e -> importOrders(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_I, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        // Ctrl+E exports today's sales for accounting
+        getRootPane().registerKeyboardAction(e -> exportSales(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_E, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        // Ctrl+L shows UI responsiveness and recent EDT stalls
+        getRootPane().registerKeyboardAction(e -> showStalls(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_L, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+        // Ctrl+O puts the customer's last order back in the cart
+        getRootPane().registerKeyboardAction(e -> reorderLast(),
+                KeyStroke.getKeyStroke(KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+    }
+
+    private void reorderLast() {
+        List<OrderLine> last = CustomerIndex.shared().lastOrder(session.getCustomerName());
+        List<String> leftOut = CustomerIndex.shared().leftOutOfLastOrder(session.getCustomerName());
+        if (last.isEmpty() && leftOut.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "There is no previous order for " + session.getCustomerName(), "Reorder", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        List<OrderLine> added = new ArrayList<>(last.size());
+        StringBuilder missing = new StringBuilder();
+        for (OrderLine line : last) {
+            String outOfStock = Inventory.shared().reserve(line.getToppings(), line.getQuantity());
+            if (outOfStock == null) {
+                added.add(line);
+            } else {
+                missing.append("\n").append(line.getQuantity()).append(" x ").append(line.getType())
+                        .append(" (").append(outOfStock).append(" is out of stock)");
+            }
+        }
+        for (String item : leftOut) {
+            missing.append("\n").append(item).append(" (no longer on the menu)");
+        }
+        addCartRows((DefaultTableModel) jTable1.getModel(), added);
+        if (!added.isEmpty()) {
+            Order reorder = new Order(session.getCustomerName(), added);
+            OrderEventBus.shared().publish(OrderEvent.Type.CART_ITEM_ADDED, 0, OrderEvent.toCents(reorder.getTotal()),
+                    "Reorder of " + reorder.getItemCount() + " pizzas");
+        }
+        if (missing.length() > 0) {
+            JOptionPane.showMessageDialog(this, "Some of the last order could not be added:" + missing, "Reorder", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    private void importOrders() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Import Orders");
+        chooser.setFileFilter(new FileNameExtensionFilter("Order files (CSV, JSON)", "csv", "json"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        new SwingWorker<OrderImport.Result, Void>() {
+            @Override
+            protected OrderImport.Result doInBackground() throws Exception {
+                return OrderImport.read(file);
+            }
+
+            @Override
+            protected void done() {
+                OrderImport.Result result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    JOptionPane.showMessageDialog(Shop.this, "Could not import " + file.getFileName() + "\n" + cause.getMessage(), "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                addCartRows((DefaultTableModel) jTable1.getModel(), result.getLines());
+                if (!result.getLines().isEmpty()) {
+                    // One event for the whole file, so a big import cannot lap slow subscribers
+                    Order imported = new Order(session.getCustomerName(), result.getLines());
+                    OrderEventBus.shared().publish(OrderEvent.Type.CART_ITEM_ADDED, 0, OrderEvent.toCents(imported.getTotal()),
+                            "Import of " + imported.getItemCount() + " pizzas");
+                }
+                JOptionPane.showMessageDialog(Shop.this, result.summary(), "Import Orders",
+                        result.getErrors().isEmpty() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+            }
+        }.execute();
+    }
+
+    private void exportSales() {
+        JFileChooser chooser = new JFileChooser(SalesExport.DEFAULT_DIRECTORY.toFile());
+        chooser.setDialogTitle("Export Today's Sales");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setSelectedFile(SalesExport.DEFAULT_DIRECTORY.toFile());
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path directory = chooser.getSelectedFile().toPath();
+        SalesExport.exportAsync(LocalDate.now(), directory).whenComplete((files, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() == null ? error : error.getCause();
+                JOptionPane.showMessageDialog(this, "Export failed\n" + cause.getMessage(), "Warning", JOptionPane.WARNING_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(this, "Sales exported to\n" + files.get(0) + "\n" + files.get(1), "Export", JOptionPane.INFORMATION_MESSAGE);
+            }
+        }));
+    }
+
+    private void showStalls() {
+        EdtWatchdog watchdog = EdtWatchdog.installed();
+        JTextArea text = new JTextArea(watchdog == null ? "EDT watchdog is not running." : watchdog.report(), 24, 80);
+        text.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(text), "UI Stalls", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void showReport() {
+        CompletableFuture.supplyAsync(() -> SalesAnalytics.shared().dailyReport(LocalDate.now()))
+                .thenAccept(report -> SwingUtilities.invokeLater(() -> {
+                    JTextArea text = new JTextArea(report, 24, 60);
+                    text.setEditable(false);
+                    JOptionPane.showMessageDialog(this, new JScrollPane(text), "Sales Report", JOptionPane.INFORMATION_MESSAGE);
+                }));
+    }
+
+    static JOptionPane notificationPane(String message) {
+        return new JOptionPane(message, JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null, new Object[]{"Close"}, null);
+    }
+
     public static void showNotification(String message) {
-        final JOptionPane optionPane = new JOptionPane(message, JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null, new Object[]{"Close"}, null);
+        final JOptionPane optionPane = notificationPane(message);
 
         final JDialog dialog = optionPane.createDialog(null, "Notification");
 
@@ -118,15 +618,9 @@ public class Shop extends javax.swing.JFrame {
         jLabel31 = new javax.swing.JLabel();
         jCheckBox7 = new javax.swing.JCheckBox();
         jPanel4 = new javax.swing.JPanel();
-        jLabel17 = new javax.swing.JLabel();
-        jLabel19 = new javax.swing.JLabel();
-        jLabel20 = new javax.swing.JLabel();
         jLabel22 = new javax.swing.JLabel();
-        jLabel26 = new javax.swing.JLabel();
-        jButton3 = new javax.swing.JButton();
-        jButton4 = new javax.swing.JButton();
-        jButton5 = new javax.swing.JButton();
-        jButton6 = new javax.swing.JButton();
+        jScrollPane2 = new javax.swing.JScrollPane();
+        menuGrid = new gui.MenuGrid();
         jLabel1 = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
@@ -398,71 +892,23 @@ public class Shop extends javax.swing.JFrame {
         jPanel4.setOpaque(false);
         jPanel4.setLayout(new org.netbeans.lib.awtextra.AbsoluteLayout());
 
-        jLabel17.setFont(new java.awt.Font("Segoe UI", 1, 14)); // NOI18N
-        jLabel17.setForeground(new java.awt.Color(255, 255, 255));
-        jLabel17.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
-        jLabel17.setText("Margherita Pizza");
-        jPanel4.add(jLabel17, new org.netbeans.lib.awtextra.AbsoluteConstraints(400, 330, 120, 30));
-
-        jLabel19.setFont(new java.awt.Font("Segoe UI", 1, 14)); // NOI18N
-        jLabel19.setForeground(new java.awt.Color(255, 255, 255));
-        jLabel19.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
-        jLabel19.setText("Veggie Pizza");
-        jPanel4.add(jLabel19, new org.netbeans.lib.awtextra.AbsoluteConstraints(140, 330, 120, 30));
-
-        jLabel20.setFont(new java.awt.Font("Segoe UI", 1, 14)); // NOI18N
-        jLabel20.setForeground(new java.awt.Color(255, 255, 255));
-        jLabel20.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
-        jLabel20.setText("Pepperoni Pizza");
-        jPanel4.add(jLabel20, new org.netbeans.lib.awtextra.AbsoluteConstraints(270, 330, 120, 30));
-
         jLabel22.setFont(new java.awt.Font("Segoe UI", 1, 18)); // NOI18N
         jLabel22.setForeground(new java.awt.Color(248, 136, 26));
         jLabel22.setHorizontalAlignment(javax.swing.SwingConstants.LEFT);
         jLabel22.setText("Type of Pizza");
         jPanel4.add(jLabel22, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 0, 230, 30));
 
-        jLabel26.setFont(new java.awt.Font("Segoe UI", 1, 14)); // NOI18N
-        jLabel26.setForeground(new java.awt.Color(255, 255, 255));
-        jLabel26.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
-        jLabel26.setText("Chicken Pizza");
-        jPanel4.add(jLabel26, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 330, 120, 30));
-
-        jButton3.setIcon(new javax.swing.ImageIcon(getClass().getResource("/images/4.PNG"))); // NOI18N
-        jButton3.setCursor(new java.awt.Cursor(java.awt.Cursor.HAND_CURSOR));
-        jButton3.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                jButton3ActionPerformed(evt);
-            }
-        });
-        jPanel4.add(jButton3, new org.netbeans.lib.awtextra.AbsoluteConstraints(400, 30, 120, 300));
+        jScrollPane2.setBorder(null);
+        jScrollPane2.setVerticalScrollBarPolicy(javax.swing.ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
 
-        jButton4.setIcon(new javax.swing.ImageIcon(getClass().getResource("/images/1.PNG"))); // NOI18N
-        jButton4.setCursor(new java.awt.Cursor(java.awt.Cursor.HAND_CURSOR));
-        jButton4.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                jButton4ActionPerformed(evt);
+        menuGrid.addListSelectionListener(new javax.swing.event.ListSelectionListener() {
+            public void valueChanged(javax.swing.event.ListSelectionEvent evt) {
+                menuGridValueChanged(evt);
             }
         });
-        jPanel4.add(jButton4, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 30, 120, 300));
+        jScrollPane2.setViewportView(menuGrid);
 
-        jButton5.setIcon(new javax.swing.ImageIcon(getClass().getResource("/images/2.PNG"))); // NOI18N
-        jButton5.setCursor(new java.awt.Cursor(java.awt.Cursor.HAND_CURSOR));
-        jButton5.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                jButton5ActionPerformed(evt);
-            }
-        });
-        jPanel4.add(jButton5, new org.netbeans.lib.awtextra.AbsoluteConstraints(140, 30, 120, 300));
-
-        jButton6.setIcon(new javax.swing.ImageIcon(getClass().getResource("/images/3.PNG"))); // NOI18N
-        jButton6.setCursor(new java.awt.Cursor(java.awt.Cursor.HAND_CURSOR));
-        jButton6.addActionListener(new java.awt.event.ActionListener() {
-            public void actionPerformed(java.awt.event.ActionEvent evt) {
-                jButton6ActionPerformed(evt);
-            }
-        });
-        jPanel4.add(jButton6, new org.netbeans.lib.awtextra.AbsoluteConstraints(270, 30, 120, 300));
+        jPanel4.add(jScrollPane2, new org.netbeans.lib.awtextra.AbsoluteConstraints(5, 30, 520, 335));
 
         jPanel2.add(jPanel4, new org.netbeans.lib.awtextra.AbsoluteConstraints(480, 110, 530, 370));
 
@@ -487,43 +933,21 @@ public class Shop extends javax.swing.JFrame {
         setLocationRelativeTo(null);
     }// </editor-fold>//GEN-END:initComponents
 
-    private void jButton4ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton4ActionPerformed
-        // TODO add your handling code here:
-        String name = jLabel26.getText();
-        jLabel23.setText(name);
-        jLabel28.setText("Chicken");
-    }//GEN-LAST:event_jButton4ActionPerformed
-
-    private void jButton5ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton5ActionPerformed
-        // TODO add your handling code here:
-        String name = jLabel19.getText();
-        jLabel23.setText(name);
-        jLabel28.setText("Vegetable");
-    }//GEN-LAST:event_jButton5ActionPerformed
-
-    private void jButton6ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton6ActionPerformed
-        // TODO add your handling code here:
-        String name = jLabel20.getText();
-        jLabel23.setText(name);
-        jLabel28.setText("Pepperoni");
-    }//GEN-LAST:event_jButton6ActionPerformed
-
-    private void jButton3ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton3ActionPerformed
-        // TODO add your handling code here:
-        String name = jLabel17.getText();
-        jLabel23.setText(name);
-        jLabel28.setText("Margherita");
-    }//GEN-LAST:event_jButton3ActionPerformed
+    private void menuGridValueChanged(javax.swing.event.ListSelectionEvent evt) {//GEN-FIRST:event_menuGridValueChanged
+        MenuItem item = menuGrid.getSelectedValue();
+        if (item != null) {
+            jLabel23.setText(item.getName());
+            jLabel28.setText(item.getSignatureTopping());
+        }
+    }//GEN-LAST:event_menuGridValueChanged
 
     private void jCheckBox3ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jCheckBox3ActionPerformed
         // TODO add your handling code here:
         if (jCheckBox3.isSelected()) {
-            jCheckBox1.setEnabled(true);
-            jCheckBox2.setEnabled(true);
-            jCheckBox4.setEnabled(true);
-            jCheckBox5.setEnabled(true);
-            jCheckBox6.setEnabled(true);
-            jCheckBox7.setEnabled(true);
+            for (JCheckBox checkBox : extraToppingBoxes()) {
+                // Out of stock toppings stay blocked
+                checkBox.setEnabled(Inventory.shared().isAvailable(checkBox.getText(), 1));
+            }
         } else {
             RemoveExtraTopping();
         }
@@ -531,6 +955,8 @@ public class Shop extends javax.swing.JFrame {
 
     private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
         // TODO add your handling code here:
+        CartItemAddedEvent event = new CartItemAddedEvent();
+        event.begin();
 
         String type = jLabel23.getText();
         String size = null;
@@ -574,10 +1000,16 @@ public class Shop extends javax.swing.JFrame {
             customizePizza.execute(pizza);
         }
 
-        DefaultTableModel dtm = (DefaultTableModel) jTable1.getModel();
-
         String qty = jComboBox1.getSelectedItem().toString();
 
+        String outOfStock = Inventory.shared().reserve(toppings, Integer.parseInt(qty));
+        if (outOfStock != null) {
+            JOptionPane.showMessageDialog(this, "Sorry, " + outOfStock + " is out of stock", "Warning", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        DefaultTableModel dtm = (DefaultTableModel) jTable1.getModel();
+
         Vector vector = new Vector();
         vector.add(type);
         vector.add(size);
@@ -585,11 +1017,18 @@ public class Shop extends javax.swing.JFrame {
         vector.add(qty);
         vector.add(Pizza.totalPrice);
         dtm.addRow(vector);
+        OrderEventBus.shared().publish(OrderEvent.Type.CART_ITEM_ADDED, 0,
+                OrderEvent.toCents(Pizza.totalPrice * Integer.parseInt(qty)), type);
+        if (event.shouldCommit()) {
+            event.pizza = type;
+            event.itemCount = Integer.parseInt(qty);
+            event.value = Pizza.totalPrice * event.itemCount;
+            event.commit();
+        }
 
         //Reset
-        String name = jLabel26.getText();
-        jLabel23.setText(name);
-        jLabel28.setText("Chicken");
+        menuGrid.setSelectedIndex(0);
+        menuGrid.ensureIndexIsVisible(0);
         jRadioButton1.setSelected(true);
         jCheckBox3.setSelected(false);
         RemoveExtraTopping();
@@ -604,48 +1043,52 @@ public class Shop extends javax.swing.JFrame {
         } else {
 
             DefaultTableModel dtm = (DefaultTableModel) jTable1.getModel();
-            Double fullTotal = 0.0;
-
-            if (dtm.getRowCount() > 0) {
-                StringBuilder allRowsData = new StringBuilder();
-
-                for (int row = 0; row < dtm.getRowCount(); row++) {
-                    String type = dtm.getValueAt(row, 0).toString();
-                    String size = dtm.getValueAt(row, 1).toString();
-                    List<String> toppings = (List<String>) dtm.getValueAt(row, 2);
-                    String qty = dtm.getValueAt(row, 3).toString();
-                    String totalPrice = dtm.getValueAt(row, 4).toString();
 
-                    Double total = Double.parseDouble(totalPrice) * Double.parseDouble(qty);
-                    fullTotal += total;
+            List<OrderLine> lines = new ArrayList<>();
+            for (int row = 0; row < dtm.getRowCount(); row++) {
+                String type = dtm.getValueAt(row, 0).toString();
+                String size = dtm.getValueAt(row, 1).toString();
+                List<String> toppings = (List<String>) dtm.getValueAt(row, 2);
+                String qty = dtm.getValueAt(row, 3).toString();
+                String totalPrice = dtm.getValueAt(row, 4).toString();
 
-                    String rowData = String.format("Pizza: " + type + ", \nSize: " + size + ", \nToppings: "
-                            + String.join(", ", toppings) + " \nQuantity: " + qty + ", \nTotal Price : Rs "
-                            + total.toString());
+                lines.add(new OrderLine(type, size, toppings, Integer.parseInt(qty), Double.parseDouble(totalPrice)));
+            }
 
-                    allRowsData.append(rowData).append("\n\n");
+            String username = session.getCustomerName();
+            Order order = new Order(username, lines);
+            Long pickupAt = choosePickupTime(order);
+            if (pickupAt == null) {
+                return;
+            }
+            SlotBooking.Booking booking = null;
+            if (pickupAt > 0) {
+                booking = SlotBooking.shared().reserve(order, pickupAt);
+                if (booking == null) {
+                    JOptionPane.showMessageDialog(this, "Sorry, that time has just been booked. Please choose another.", "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
                 }
-
-                allOrderList = allRowsData.toString() + "\nTotal Price of the Full Order : Rs " + fullTotal.toString();
-
+                order.setPickupAt(pickupAt);
             }
+            offerLoyaltyPoints(order);
 
-            username = jLabel10.getText();
-
-            // Mediator Pattern
-            OrderManager orderManager = new OrderManager();
+            // Timed from here so the customer's think time in the dialogs above is left out
+            CheckoutEvent event = new CheckoutEvent();
+            event.begin();
+            Customer customer = newCustomer(username);
 
-            Customer customer = new Customer();
-
-            OrderMediator orderMediator = new OrderMediator(orderManager, customer);
-
-            orderManager.setOrderMediator(orderMediator);
-            customer.setOrderMediator(orderMediator);
-
-            customer.sendOrder();
+            SessionSnapshot.shared().trackPending(order);
+            Session current = session;
+            current.orderSent(order);
+            pay(current, customer, order, booking);
 
             //Reset
             dtm.setRowCount(0);
+            if (event.shouldCommit()) {
+                event.customer = username;
+                event.describe(order);
+                event.commit();
+            }
         }
 
     }//GEN-LAST:event_jButton2ActionPerformed
@@ -659,8 +1102,22 @@ public class Shop extends javax.swing.JFrame {
             } else {
                 int option = JOptionPane.showConfirmDialog(this, "Do you want to remove this Pizza Order?", "Confirmation", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
                 if (option == JOptionPane.YES_OPTION) {
+                    CartItemRemovedEvent event = new CartItemRemovedEvent();
+                    event.begin();
                     DefaultTableModel dtm = (DefaultTableModel) jTable1.getModel();
+                    OrderLine line = SessionSnapshot.line(dtm, r);
+                    String type = line.getType();
+                    int qty = line.getQuantity();
+                    double total = line.getUnitPrice() * qty;
+                    Inventory.shared().release(line.getToppings(), qty);
                     dtm.removeRow(r);
+                    OrderEventBus.shared().publish(OrderEvent.Type.CART_ITEM_REMOVED, 0, OrderEvent.toCents(total), type);
+                    if (event.shouldCommit()) {
+                        event.pizza = type;
+                        event.itemCount = qty;
+                        event.value = total;
+                        event.commit();
+                    }
 
                     JOptionPane.showMessageDialog(this, "Pizza Order removed!", "Success", JOptionPane.INFORMATION_MESSAGE);
                 }
@@ -678,9 +1135,11 @@ public class Shop extends javax.swing.JFrame {
             IntelliJTheme.setup(is);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.warn("Could not load the theme", e);
         }
 
+        EdtWatchdog.install();
+
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
@@ -693,10 +1152,6 @@ public class Shop extends javax.swing.JFrame {
     private javax.swing.ButtonGroup buttonGroup2;
     private javax.swing.JButton jButton1;
     private javax.swing.JButton jButton2;
-    private javax.swing.JButton jButton3;
-    private javax.swing.JButton jButton4;
-    private javax.swing.JButton jButton5;
-    private javax.swing.JButton jButton6;
     private javax.swing.JCheckBox jCheckBox1;
     private javax.swing.JCheckBox jCheckBox2;
     private javax.swing.JCheckBox jCheckBox3;
@@ -709,17 +1164,13 @@ public class Shop extends javax.swing.JFrame {
     public javax.swing.JLabel jLabel10;
     private javax.swing.JLabel jLabel11;
     private javax.swing.JLabel jLabel12;
-    private javax.swing.JLabel jLabel17;
     private javax.swing.JLabel jLabel18;
-    private javax.swing.JLabel jLabel19;
     private javax.swing.JLabel jLabel2;
-    private javax.swing.JLabel jLabel20;
     public javax.swing.JLabel jLabel21;
     private javax.swing.JLabel jLabel22;
     public javax.swing.JLabel jLabel23;
     private javax.swing.JLabel jLabel24;
     private javax.swing.JLabel jLabel25;
-    private javax.swing.JLabel jLabel26;
     public javax.swing.JLabel jLabel27;
     public javax.swing.JLabel jLabel28;
     public javax.swing.JLabel jLabel29;
@@ -740,6 +1191,8 @@ public class Shop extends javax.swing.JFrame {
     private javax.swing.JRadioButton jRadioButton2;
     private javax.swing.JRadioButton jRadioButton3;
     private javax.swing.JScrollPane jScrollPane1;
+    private javax.swing.JScrollPane jScrollPane2;
     private javax.swing.JTable jTable1;
+    private gui.MenuGrid menuGrid;
     // End of variables declaration//GEN-END:variables
 }
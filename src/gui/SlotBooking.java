@@ -0,0 +1,435 @@
+package gui;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pickup times booked ahead, held against what the kitchen can take.
+ *
+ * The coming {@code syzygy.booking.days} (default 7) are cut into slots of
+ * {@code syzygy.booking.slotMinutes} (default 15). Within opening hours
+ * ({@code syzygy.booking.open}, default 10:00-22:00) each slot offers
+ * {@code syzygy.booking.share} (default 0.6) of the kitchen to bookings,
+ * leaving the rest for walk-in orders: orders the staff can accept, pack and
+ * hand over, and pizzas the ovens can cook. A booking uses both in the slots
+ * its order is made in, the ones before its pickup time. What is left in
+ * each slot is kept in a segment tree per resource, so checking a time and
+ * finding the earliest one an order fits are logarithmic in the number of
+ * slots.
+ *
+ * A confirmed booking is sent into the live pipeline when its order has to
+ * start to be ready on time. Bookings live in memory; a booked order is paid
+ * for, so one that has not been sent yet when the app closes is saved as a
+ * paid order with its pickup time and booked again when the till restarts.
+ * If that time has been taken meanwhile it moves to the next free time, and
+ * the staff are told.
+ */
+final class SlotBooking {
+
+    private static SlotBooking shared;
+
+    static synchronized SlotBooking shared() {
+        if (shared == null) {
+            String[] open = System.getProperty("syzygy.booking.open", "10:00-22:00").split("-");
+            int staff = Integer.getInteger("syzygy.kitchen.staff", 2);
+            int ovens = Integer.getInteger("syzygy.kitchen.ovens", 2);
+            int pizzasPerOven = Integer.getInteger("syzygy.kitchen.pizzasPerOven", 4);
+            long slotMillis = TimeUnit.MINUTES.toMillis(Integer.getInteger("syzygy.booking.slotMinutes", 15));
+            double share = Double.parseDouble(System.getProperty("syzygy.booking.share", "0.6"));
+            long[] stages = EtaEstimator.DEFAULT_STAGE_MILLIS;
+            long handlingMillis = stages[0] + stages[2] + stages[3];
+            shared = new SlotBooking(ZoneId.systemDefault(), slotMillis, Integer.getInteger("syzygy.booking.days", 7),
+                    LocalTime.parse(open[0].trim()), LocalTime.parse(open[1].trim()),
+                    (int) (share * staff * slotMillis / handlingMillis),
+                    (int) (share * ovens * pizzasPerOven * slotMillis / stages[1]),
+                    stages[0] + stages[1] + stages[2] + stages[3]);
+        }
+        return shared;
+    }
+
+    private final ZoneId zone;
+    private final long slotMillis;
+    private final int days;
+    private final LocalTime opens;
+    private final LocalTime closes;
+    private final int ordersPerSlot;
+    private final int pizzasPerSlot;
+    private final long leadMillis;
+    private final int leadSlots;
+    private final Set<Booking> active = new HashSet<>();
+    private final ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "slot-booking");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The calendar: slot i starts at origin + i * slotMillis
+    private long origin;
+    private int slots;
+    private CapacityTree orders;
+    private CapacityTree pizzas;
+
+    /**
+     * @param leadMillis how long before pickup an order has to start
+     */
+    SlotBooking(ZoneId zone, long slotMillis, int days, LocalTime opens, LocalTime closes,
+            int ordersPerSlot, int pizzasPerSlot, long leadMillis) {
+        this.zone = zone;
+        this.slotMillis = slotMillis;
+        this.days = days;
+        this.opens = opens;
+        this.closes = closes;
+        this.ordersPerSlot = ordersPerSlot;
+        this.pizzasPerSlot = pizzasPerSlot;
+        this.leadMillis = leadMillis;
+        this.leadSlots = (int) Math.max(1, (leadMillis + slotMillis - 1) / slotMillis);
+        buildCalendar(System.currentTimeMillis());
+    }
+
+    /**
+     * Whether an order of {@code pizzaCount} can be picked up at
+     * {@code pickupAt}, which must be the start of a slot.
+     */
+    synchronized boolean isFree(int pizzaCount, long pickupAt, long now) {
+        roll(now);
+        int first = firstWorkSlot(pickupAt, now);
+        return first >= 0 && orders.min(first, first + leadSlots - 1) >= 1
+                && pizzas.min(first, first + leadSlots - 1) >= pizzasPerWorkSlot(pizzaCount);
+    }
+
+    /**
+     * Up to {@code count} pickup times at or after {@code from} that an
+     * order of {@code pizzaCount} fits, earliest first.
+     */
+    synchronized List<Long> freeTimes(int pizzaCount, long from, int count, long now) {
+        roll(now);
+        List<Long> times = new ArrayList<>(count);
+        int first = Math.max(0, (int) Math.floorDiv(from - origin + slotMillis - 1, slotMillis) - leadSlots);
+        while (times.size() < count && (first = earliestWorkSlot(pizzaCount, first, now)) >= 0) {
+            times.add(startOf(first + leadSlots));
+            first++;
+        }
+        return times;
+    }
+
+    /**
+     * Holds the kitchen for {@code order} to be picked up at
+     * {@code pickupAt}. Nothing is sent until the booking is confirmed.
+     *
+     * @return null if that time is no longer free
+     */
+    synchronized Booking reserve(Order order, long pickupAt) {
+        long now = System.currentTimeMillis();
+        if (!isFree(order.getItemCount(), pickupAt, now)) {
+            return null;
+        }
+        Booking booking = new Booking(order, pickupAt, pizzasPerWorkSlot(order.getItemCount()));
+        take(booking, -1);
+        active.add(booking);
+        OrderEventBus.shared().publish(OrderEvent.Type.ORDER_BOOKED, order.getOrderId(), pickupAt, order.getCustomerName());
+        return booking;
+    }
+
+    synchronized int activeBookings() {
+        return active.size();
+    }
+
+    // Gives back (sign 1) or takes (sign -1) the room the booking uses in its work slots
+    private void take(Booking booking, int sign) {
+        int first = slotFor(booking.pickupAt) - leadSlots;
+        int from = Math.max(0, first);
+        int to = first + leadSlots - 1;
+        if (to >= from) {
+            orders.add(from, to, sign);
+            pizzas.add(from, to, sign * booking.pizzasPerSlot);
+        }
+    }
+
+    private int pizzasPerWorkSlot(int pizzaCount) {
+        return (pizzaCount + leadSlots - 1) / leadSlots;
+    }
+
+    // Earliest first work slot at or after first with room in all of its work slots, or -1
+    private int earliestWorkSlot(int pizzaCount, int first, long now) {
+        int needed = pizzasPerWorkSlot(pizzaCount);
+        first = Math.max(first, slotFor(now) + 1);
+        while (first + leadSlots <= slots) {
+            int last = first + leadSlots - 1;
+            int full = orders.firstBelow(first, last, 1);
+            int blocked = pizzas.firstBelow(first, last, needed);
+            if (full < 0 && blocked < 0) {
+                return first;
+            }
+            // No work can start until both have room again, which skips nights in one step
+            int next = Math.max(full, blocked) + 1;
+            int staffed = orders.firstAtLeast(next, slots - 1, 1);
+            int ovens = pizzas.firstAtLeast(next, slots - 1, needed);
+            if (staffed < 0 || ovens < 0) {
+                return -1;
+            }
+            first = Math.max(staffed, ovens);
+        }
+        return -1;
+    }
+
+    // First work slot for a pickup at pickupAt, or -1 if it is not a bookable time
+    private int firstWorkSlot(long pickupAt, long now) {
+        long offset = pickupAt - origin;
+        if (offset < 0 || offset % slotMillis != 0) {
+            return -1;
+        }
+        int first = (int) (offset / slotMillis) - leadSlots;
+        return first > slotFor(now) && first + leadSlots <= slots ? first : -1;
+    }
+
+    private int slotFor(long time) {
+        return (int) Math.floorDiv(time - origin, slotMillis);
+    }
+
+    private long startOf(int slot) {
+        return origin + slot * slotMillis;
+    }
+
+    // Moves the calendar on once today is past its first half
+    private void roll(long now) {
+        if (slotFor(now) >= slots / 2) {
+            buildCalendar(now);
+            for (Booking booking : active) {
+                take(booking, -1);
+            }
+        }
+    }
+
+    private void buildCalendar(long now) {
+        LocalDate today = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+        origin = today.atStartOfDay(zone).toInstant().toEpochMilli();
+        slots = (int) (TimeUnit.DAYS.toMillis(days) / slotMillis);
+        long[] orderRoom = new long[slots];
+        long[] pizzaRoom = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            LocalTime start = Instant.ofEpochMilli(startOf(i)).atZone(zone).toLocalTime();
+            LocalTime end = Instant.ofEpochMilli(startOf(i + 1) - 1).atZone(zone).toLocalTime();
+            if (!start.isBefore(opens) && end.isBefore(closes) && !end.isBefore(start)) {
+                orderRoom[i] = ordersPerSlot;
+                pizzaRoom[i] = pizzasPerSlot;
+            }
+        }
+        orders = new CapacityTree(orderRoom);
+        pizzas = new CapacityTree(pizzaRoom);
+    }
+
+    final class Booking {
+
+        private final Order order;
+        private final long pickupAt;
+        private final int pizzasPerSlot;
+        private ScheduledFuture<?> release;
+        private boolean over;
+
+        Booking(Order order, long pickupAt, int pizzasPerSlot) {
+            this.order = order;
+            this.pickupAt = pickupAt;
+            this.pizzasPerSlot = pizzasPerSlot;
+        }
+
+        Order getOrder() {
+            return order;
+        }
+
+        long getPickupAt() {
+            return pickupAt;
+        }
+
+        /**
+         * When the order is sent to the kitchen, in epoch millis.
+         */
+        long getReleaseAt() {
+            return pickupAt - leadMillis;
+        }
+
+        /**
+         * Sends the order on with {@code send} when it has to start, or
+         * straight away if that time has passed.
+         */
+        void confirm(Runnable send) {
+            synchronized (SlotBooking.this) {
+                if (over || release != null) {
+                    return;
+                }
+                release = releaser.schedule(() -> {
+                    synchronized (SlotBooking.this) {
+                        if (over) {
+                            return;
+                        }
+                        over = true;
+                        active.remove(this);
+                    }
+                    Log.info("Releasing the booking for %s due at %d", order.getCustomerName(), pickupAt);
+                    send.run();
+                }, Math.max(0, getReleaseAt() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Gives the time back, unless the order has already been sent.
+         *
+         * @return false if it had been sent or cancelled already
+         */
+        boolean cancel() {
+            synchronized (SlotBooking.this) {
+                if (over) {
+                    return false;
+                }
+                over = true;
+                active.remove(this);
+                if (release != null) {
+                    release.cancel(false);
+                }
+                take(this, 1);
+                return true;
+            }
+        }
+    }
+}
+
+/**
+ * Room left per slot, with range add, range minimum and the first slot in a
+ * range below or at least a given room, each in O(log n).
+ */
+final class CapacityTree {
+
+    private final int size;
+    private final long[] min;
+    private final long[] max;
+    private final long[] pending;
+
+    CapacityTree(long[] room) {
+        this.size = Math.max(1, room.length);
+        this.min = new long[4 * size];
+        this.max = new long[4 * size];
+        this.pending = new long[4 * size];
+        build(1, 0, size - 1, room);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void build(int node, int low, int high, long[] room) {
+        if (low == high) {
+            min[node] = low < room.length ? room[low] : 0;
+            max[node] = min[node];
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        build(2 * node, low, mid, room);
+        build(2 * node + 1, mid + 1, high, room);
+        pull(node);
+    }
+
+    void add(int from, int to, long delta) {
+        add(1, 0, size - 1, from, to, delta);
+    }
+
+    private void add(int node, int low, int high, int from, int to, long delta) {
+        if (to < low || high < from) {
+            return;
+        }
+        if (from <= low && high <= to) {
+            shift(node, delta);
+            return;
+        }
+        push(node);
+        int mid = (low + high) >>> 1;
+        add(2 * node, low, mid, from, to, delta);
+        add(2 * node + 1, mid + 1, high, from, to, delta);
+        pull(node);
+    }
+
+    long min(int from, int to) {
+        return min(1, 0, size - 1, from, to);
+    }
+
+    private long min(int node, int low, int high, int from, int to) {
+        if (to < low || high < from) {
+            return Long.MAX_VALUE;
+        }
+        if (from <= low && high <= to) {
+            return min[node];
+        }
+        push(node);
+        int mid = (low + high) >>> 1;
+        return Math.min(min(2 * node, low, mid, from, to), min(2 * node + 1, mid + 1, high, from, to));
+    }
+
+    /**
+     * The first slot in {@code [from, to]} with less than {@code room} left,
+     * or -1.
+     */
+    int firstBelow(int from, int to, long room) {
+        return firstBelow(1, 0, size - 1, from, to, room);
+    }
+
+    private int firstBelow(int node, int low, int high, int from, int to, long room) {
+        if (to < low || high < from || min[node] >= room) {
+            return -1;
+        }
+        if (low == high) {
+            return low;
+        }
+        push(node);
+        int mid = (low + high) >>> 1;
+        int found = firstBelow(2 * node, low, mid, from, to, room);
+        return found >= 0 ? found : firstBelow(2 * node + 1, mid + 1, high, from, to, room);
+    }
+
+    /**
+     * The first slot in {@code [from, to]} with at least {@code room} left,
+     * or -1.
+     */
+    int firstAtLeast(int from, int to, long room) {
+        return firstAtLeast(1, 0, size - 1, from, to, room);
+    }
+
+    private int firstAtLeast(int node, int low, int high, int from, int to, long room) {
+        if (to < low || high < from || max[node] < room) {
+            return -1;
+        }
+        if (low == high) {
+            return low;
+        }
+        push(node);
+        int mid = (low + high) >>> 1;
+        int found = firstAtLeast(2 * node, low, mid, from, to, room);
+        return found >= 0 ? found : firstAtLeast(2 * node + 1, mid + 1, high, from, to, room);
+    }
+
+    private void shift(int node, long delta) {
+        min[node] += delta;
+        max[node] += delta;
+        pending[node] += delta;
+    }
+
+    private void push(int node) {
+        if (pending[node] != 0) {
+            shift(2 * node, pending[node]);
+            shift(2 * node + 1, pending[node]);
+            pending[node] = 0;
+        }
+    }
+
+    private void pull(int node) {
+        min[node] = Math.min(min[2 * node], min[2 * node + 1]);
+        max[node] = Math.max(max[2 * node], max[2 * node + 1]);
+    }
+}
@@ -99,14 +99,17 @@ public class Splash extends javax.swing.JFrame {
             IntelliJTheme.setup(is);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.warn("Could not load the theme", e);
         }
 
+        EdtWatchdog.install();
+
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
 
                 Splash splash = new Splash();
+                Startup.watchFirstFrame(splash);
                 splash.setVisible(true);
 
                 Thread t = new Thread(() -> {
@@ -116,7 +119,7 @@ public class Splash extends javax.swing.JFrame {
                         try {
                             Thread.sleep(50);
                         } catch (Exception e) {
-                            e.printStackTrace();
+                            Log.warn("Splash screen interrupted", e);
                         }
 
                     }
@@ -0,0 +1,230 @@
+package gui;
+
+import com.formdev.flatlaf.IntelliJTheme;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * The training run for the class data sharing archive, and the stopwatch for
+ * how long the app takes to show its first frame.
+ *
+ * {@code ant cds-archive} runs {@code train} with
+ * {@code -XX:ArchiveClassesAtExit} (JDK 13 or later): it loads every class
+ * of the app and opens Splash, Login and Shop, so the JVM writes everything
+ * that start-up touched, Swing and FlatLaf included, into the archive as it
+ * exits. {@code ant run-fast} then starts the app with
+ * {@code -XX:SharedArchiveFile} and {@code -Xshare:auto}, which quietly
+ * ignores an archive that is missing or was made by another JVM or from
+ * another build of the jar. {@code ant startup-time} runs {@code measure},
+ * which launches the app several times with and without the archive and
+ * reports the time from launch to the splash screen being on screen.
+ */
+final class Startup {
+
+    static final String PROBE = "syzygy.startup.probe";
+
+    private static final String FIRST_FRAME = "syzygy-first-frame";
+
+    /**
+     * In a probe launch, reports {@code frame} being on screen to the
+     * measuring process and exits. Call before showing the frame.
+     */
+    static void watchFirstFrame(Window frame) {
+        if (!Boolean.getBoolean(PROBE)) {
+            return;
+        }
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // Behind the paint that opening the window queued
+                EventQueue.invokeLater(() -> {
+                    System.out.println(FIRST_FRAME);
+                    System.out.flush();
+                    System.exit(0);
+                });
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "";
+        if (mode.equals("train")) {
+            train();
+        } else if (mode.equals("measure") && args.length > 1) {
+            measure(Paths.get(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 10);
+        } else {
+            System.err.println("Usage: Startup train | measure <archive> [launches]");
+            System.exit(2);
+        }
+    }
+
+    static void train() throws Exception {
+        try (InputStream is = Startup.class.getResourceAsStream("/resources/Cobalt_2.theme.json")) {
+            IntelliJTheme.setup(is);
+        }
+        int loaded = loadAppClasses();
+        SwingUtilities.invokeAndWait(() -> {
+            if (GraphicsEnvironment.isHeadless()) {
+                paintOffScreen();
+            } else {
+                openScreens();
+            }
+        });
+        Log.info("Training run loaded %d app classes", loaded);
+        Log.shared().awaitWritten(5, TimeUnit.SECONDS);
+        // The archive is written as the JVM exits
+        System.exit(0);
+    }
+
+    // Loads without initializing, so nothing starts that the screens would not
+    private static int loadAppClasses() throws IOException, URISyntaxException, ClassNotFoundException {
+        Path location = Paths.get(Startup.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<String> names = new ArrayList<>();
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> files = Files.walk(location)) {
+                files.map(file -> location.relativize(file).toString().replace('\\', '/')).forEach(names::add);
+            }
+        } else {
+            try (JarFile jar = new JarFile(location.toFile())) {
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                    names.add(entries.nextElement().getName());
+                }
+            }
+        }
+        ClassLoader loader = Startup.class.getClassLoader();
+        int loaded = 0;
+        for (String name : names) {
+            if (name.startsWith("gui/") && name.endsWith(".class")) {
+                Class.forName(name.substring(0, name.length() - ".class".length()).replace('/', '.'), false, loader);
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    private static void openScreens() {
+        Splash splash = new Splash();
+        show(splash);
+        splash.dispose();
+        Login login = new Login();
+        show(login);
+        login.dispose();
+        Shop shop = new Shop(SessionRegistry.shared().open("Training"));
+        show(shop);
+        DefaultTableModel cart = (DefaultTableModel) shop.cartTable().getModel();
+        Shop.addCartRows(cart, UiBenchmark.lines(50, new SplittableRandom(1)));
+        shop.getRootPane().paintImmediately(shop.getRootPane().getBounds());
+        cart.setRowCount(0);
+        shop.dispose();
+    }
+
+    private static void show(JFrame frame) {
+        frame.setVisible(true);
+        frame.getRootPane().paintImmediately(frame.getRootPane().getBounds());
+    }
+
+    // Without a display there are no frames, but the components in them still load and paint
+    private static void paintOffScreen() {
+        BufferedImage image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        MenuGrid menu = new MenuGrid(PizzaCatalog.menu());
+        JScrollPane menuScroll = new JScrollPane(menu);
+        JTable table = new JTable(new DefaultTableModel(new Object[0][], new String[]{"Type", "Size", "Toppings", "Quantity", "Price of One"}));
+        Shop.addCartRows((DefaultTableModel) table.getModel(), UiBenchmark.lines(50, new SplittableRandom(1)));
+        JScrollPane tableScroll = new JScrollPane(table);
+        JOptionPane notification = Shop.notificationPane("Your Pizza Order #1 is accepted!\nExpected to be ready at 07:30 PM");
+        for (JComponent component : Arrays.asList(menuScroll, tableScroll, notification)) {
+            component.setSize(component.getPreferredSize().width + 1, Math.min(600, component.getPreferredSize().height + 1));
+            component.doLayout();
+            component.paint(image.createGraphics());
+        }
+    }
+
+    static void measure(Path archive, int launches) throws IOException, InterruptedException {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("Time to first frame needs a display; nothing measured.");
+            return;
+        }
+        if (!Files.isRegularFile(archive)) {
+            System.out.println("No archive at " + archive + "; run the cds-archive target first.");
+            return;
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> plain = command(java);
+        List<String> shared = command(java, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto");
+        // One of each to warm the file cache, then alternate so drift hits both alike
+        launch(plain);
+        launch(shared);
+        long[] before = new long[launches];
+        long[] after = new long[launches];
+        for (int i = 0; i < launches; i++) {
+            before[i] = launch(plain);
+            after[i] = launch(shared);
+        }
+        Arrays.sort(before);
+        Arrays.sort(after);
+        System.out.printf("Time to first frame over %d launches (ms)%n", launches);
+        System.out.printf("%-22s %8s %8s %8s%n", "", "median", "min", "max");
+        System.out.printf("%-22s %8d %8d %8d%n", "JDK archive only", before[launches / 2], before[0], before[launches - 1]);
+        System.out.printf("%-22s %8d %8d %8d%n", "with " + archive.getFileName(), after[launches / 2], after[0], after[launches - 1]);
+        System.out.printf("%.0f%% faster at the median%n", 100.0 * (before[launches / 2] - after[launches / 2]) / before[launches / 2]);
+    }
+
+    private static List<String> command(String java, String... options) {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(Arrays.asList(options));
+        command.add("-D" + PROBE + "=true");
+        command.add("-Duser.home=" + System.getProperty("user.home"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gui.Splash");
+        return command;
+    }
+
+    // Milliseconds from starting the process to it reporting its first frame
+    private static long launch(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = out.readLine()) != null;) {
+                if (line.equals(FIRST_FRAME)) {
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    process.waitFor(10, TimeUnit.SECONDS);
+                    return millis;
+                }
+            }
+        } finally {
+            process.destroy();
+        }
+        throw new IOException("Launch exited with " + process.waitFor() + " before showing a frame");
+    }
+}
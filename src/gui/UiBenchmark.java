@@ -0,0 +1,318 @@
+package gui;
+
+import com.formdev.flatlaf.IntelliJTheme;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Timings for the shop screen, painted into an image instead of onto the
+ * display.
+ *
+ * Measures building the Shop frame (never shown; skipped when there is no
+ * display at all), then for carts of 10, 1,000 and 100,000 pizzas: adding
+ * them, painting the cart table at the top and in the middle, and adding or
+ * removing one row and repainting. Last, building and painting one order
+ * notification. Everything runs on the EDT with a fixed seed and fixed run
+ * counts, and the report is a tab separated file with the JVM and look and
+ * feel in its header, so two reports can be compared line by line. Run it
+ * with {@code ant bench}, adding {@code -Dbench.baseline=<earlier report>}
+ * to print the change against that report.
+ */
+final class UiBenchmark {
+
+    static final int[] CART_SIZES = {10, 1_000, 100_000};
+
+    private static final long SEED = 42;
+    private static final int TABLE_WIDTH = 510;
+    private static final int TABLE_HEIGHT = 120;
+
+    interface Task {
+
+        void run(int iteration) throws Exception;
+    }
+
+    private final List<Result> results = new ArrayList<>();
+    private final BufferedImage canvas = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+    private String cartSource;
+
+    public static void main(String[] args) throws Exception {
+        Path out = Paths.get(args.length > 0 ? args[0]
+                : "build/bench/ui-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".tsv");
+        Path baseline = args.length > 1 && !args[1].isEmpty() ? Paths.get(args[1]) : null;
+        try (InputStream is = UiBenchmark.class.getResourceAsStream("/resources/Cobalt_2.theme.json")) {
+            IntelliJTheme.setup(is);
+        } catch (Exception e) {
+            Log.warn("Could not load the theme", e);
+        }
+        UiBenchmark bench = new UiBenchmark();
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    bench.runAll();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        String report = bench.report(baseline == null ? Collections.emptyMap() : readMedians(baseline));
+        System.out.print(report);
+        if (out.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(out.toAbsolutePath().getParent());
+        }
+        Files.write(out, report.getBytes(StandardCharsets.UTF_8));
+        System.out.println("Report written to " + out);
+        // The Shop frames leave Swing and order threads behind
+        System.exit(0);
+    }
+
+    void runAll() throws Exception {
+        JTable table;
+        if (GraphicsEnvironment.isHeadless()) {
+            results.add(Result.skipped("shop.construct"));
+            table = standInCartTable();
+            cartSource = "stand-in (headless)";
+        } else {
+            measure("shop.construct", 0, 2, 10, null, i -> new Shop(SessionRegistry.shared().open("Benchmark " + i)).dispose());
+            table = new Shop(SessionRegistry.shared().open("Benchmark")).cartTable();
+            cartSource = "Shop.jTable1";
+        }
+        JScrollPane scroll = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, table);
+        if (scroll == null) {
+            scroll = new JScrollPane(table);
+        }
+        scroll.setSize(TABLE_WIDTH, TABLE_HEIGHT);
+        for (int size : CART_SIZES) {
+            cart(table, scroll, size);
+        }
+        measure("notification", 0, 20, 200, null, i -> {
+            JOptionPane pane = Shop.notificationPane("Your Pizza Order #" + i + " is accepted!\nExpected to be ready at 07:30 PM");
+            pane.setSize(pane.getPreferredSize());
+            paint(pane);
+        });
+    }
+
+    private void cart(JTable table, JScrollPane scroll, int size) throws Exception {
+        DefaultTableModel model = (DefaultTableModel) table.getModel();
+        List<OrderLine> lines = lines(size, new SplittableRandom(SEED + size));
+        List<OrderLine> one = lines.subList(0, 1);
+        Point top = new Point(0, 0);
+        measure("cart.fill", size, 1, 5, () -> model.setRowCount(0), i -> Shop.addCartRows(model, lines));
+        measure("cart.paint.top", size, 20, 100, () -> scroll.getViewport().setViewPosition(top), i -> paint(scroll));
+        Point middle = new Point(0, table.getRowHeight() * (size / 2));
+        measure("cart.paint.middle", size, 20, 100, () -> scroll.getViewport().setViewPosition(middle), i -> paint(scroll));
+        scroll.getViewport().setViewPosition(top);
+        // Every run starts from a cart of exactly size rows
+        measure("cart.insert", size, 20, 200, () -> resize(model, lines), i -> {
+            Shop.addCartRows(model, one);
+            paint(scroll);
+        });
+        measure("cart.remove.middle", size, 20, 200, () -> resize(model, lines), i -> {
+            model.removeRow(model.getRowCount() / 2);
+            paint(scroll);
+        });
+        model.setRowCount(0);
+    }
+
+    // Trims rows added by the last run, or tops up with the next of lines after one was removed
+    private static void resize(DefaultTableModel model, List<OrderLine> lines) {
+        int rows = model.getRowCount();
+        if (rows > lines.size()) {
+            model.setRowCount(lines.size());
+        } else if (rows < lines.size()) {
+            Shop.addCartRows(model, lines.subList(rows, lines.size()));
+        }
+    }
+
+    // Same columns as the Shop's cart, for when the frame cannot be built
+    private static JTable standInCartTable() {
+        return new JTable(new DefaultTableModel(new Object[0][], new String[]{"Type", "Size", "Toppings", "Quantity", "Price of One"}) {
+            @Override
+            public boolean isCellEditable(int rowIndex, int columnIndex) {
+                return false;
+            }
+        });
+    }
+
+    static List<OrderLine> lines(int count, SplittableRandom random) {
+        List<String> types = PizzaCatalog.types();
+        List<String> sizes = PizzaCatalog.sizes();
+        List<String> extras = PizzaCatalog.extraToppings();
+        List<OrderLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = types.get(random.nextInt(types.size()));
+            List<String> toppings = new ArrayList<>(PizzaCatalog.defaultToppings());
+            toppings.add(PizzaCatalog.signatureTopping(type));
+            for (int extra = random.nextInt(3); extra > 0; extra--) {
+                toppings.add(extras.get(random.nextInt(extras.size())));
+            }
+            lines.add(new OrderLine(type, sizes.get(random.nextInt(sizes.size())), toppings, 1 + random.nextInt(4),
+                    PizzaCatalog.unitPrice(toppings.size())));
+        }
+        return lines;
+    }
+
+    /**
+     * Times {@code runs} calls of {@code task} after {@code warmup} untimed
+     * ones; {@code setup} runs untimed before each call.
+     */
+    private void measure(String name, int size, int warmup, int runs, Runnable setup, Task task) throws Exception {
+        System.gc();
+        long[] nanos = new long[runs];
+        for (int i = -warmup; i < runs; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            task.run(i);
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                nanos[i] = elapsed;
+            }
+        }
+        results.add(new Result(name, size, nanos));
+    }
+
+    // Lays out and paints into the image, as a repaint of the component would
+    private void paint(JComponent component) {
+        layout(component);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.setClip(0, 0, component.getWidth(), component.getHeight());
+            component.paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Container.validate() does nothing without a peer, so lay out by hand
+    private static void layout(Component component) {
+        if (component instanceof Container) {
+            Container container = (Container) component;
+            container.doLayout();
+            for (Component child : container.getComponents()) {
+                layout(child);
+            }
+        }
+    }
+
+    String report(Map<String, Double> baseline) {
+        StringBuilder text = new StringBuilder();
+        text.append("# Syzygy UI benchmark, ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date())).append('\n');
+        text.append("# java ").append(System.getProperty("java.version")).append(", ").append(System.getProperty("java.vm.name"))
+                .append(", ").append(System.getProperty("os.name")).append(' ').append(System.getProperty("os.arch"))
+                .append(", ").append(Runtime.getRuntime().availableProcessors()).append(" cpus, heap ")
+                .append(Runtime.getRuntime().maxMemory() >> 20).append(" MB\n");
+        text.append("# ").append(UIManager.getLookAndFeel().getName()).append(", headless ").append(GraphicsEnvironment.isHeadless())
+                .append(", cart table ").append(cartSource).append(", seed ").append(SEED).append('\n');
+        text.append("benchmark\trows\truns\tmedian_us\tp90_us\tmax_us");
+        if (!baseline.isEmpty()) {
+            text.append("\tbaseline_us\tchange");
+        }
+        text.append('\n');
+        for (Result result : results) {
+            result.appendTo(text);
+            Double before = baseline.get(result.key());
+            if (!baseline.isEmpty()) {
+                if (before == null || result.runs() == 0) {
+                    text.append("\t-\t-");
+                } else {
+                    text.append('\t').append(micros(before)).append('\t')
+                            .append(String.format(Locale.ROOT, "%+.1f%%", (result.median() - before) / before * 100));
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    // Medians by benchmark and rows from an earlier report
+    static Map<String, Double> readMedians(Path report) throws IOException {
+        Map<String, Double> medians = new HashMap<>();
+        for (String line : Files.readAllLines(report, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (line.startsWith("#") || fields.length < 4 || fields[0].equals("benchmark") || fields[3].equals("-")) {
+                continue;
+            }
+            medians.put(fields[0] + "/" + fields[1], Double.parseDouble(fields[3]));
+        }
+        return medians;
+    }
+
+    private static String micros(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static final class Result {
+
+        final String name;
+        final int size;
+        final long[] sorted;
+
+        Result(String name, int size, long[] nanos) {
+            this.name = name;
+            this.size = size;
+            this.sorted = nanos.clone();
+            Arrays.sort(sorted);
+        }
+
+        static Result skipped(String name) {
+            return new Result(name, 0, new long[0]);
+        }
+
+        String key() {
+            return name + "/" + size;
+        }
+
+        int runs() {
+            return sorted.length;
+        }
+
+        double median() {
+            return percentile(50);
+        }
+
+        double percentile(int percent) {
+            return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1000.0;
+        }
+
+        void appendTo(StringBuilder text) {
+            text.append(name).append('\t').append(size).append('\t').append(sorted.length);
+            if (sorted.length == 0) {
+                text.append("\t-\t-\t-");
+            } else {
+                text.append('\t').append(micros(median())).append('\t').append(micros(percentile(90)))
+                        .append('\t').append(micros(sorted[sorted.length - 1] / 1000.0));
+            }
+        }
+    }
+}
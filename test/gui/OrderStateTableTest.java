@@ -0,0 +1,136 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the lock-free transitions, slot reuse and state counts of
+ * {@link OrderStateTable}. Run with {@code ant check}.
+ */
+public final class OrderStateTableTest {
+
+    public static void main(String[] args) throws Exception {
+        registerStartsConfirmed();
+        transitionNeedsExpectedState();
+        terminalSlotsAreReused();
+        failingCancelsFromAnyLiveState();
+        fullTableRefusesRegistration();
+        racingTransitionsHaveOneWinner();
+        System.out.println("OrderStateTableTest passed");
+    }
+
+    static void registerStartsConfirmed() {
+        OrderStateTable table = new OrderStateTable(8);
+        List<String> changes = new ArrayList<>();
+        table.addListener((id, from, to) -> changes.add(id + ":" + from + "->" + to));
+        int id = table.register();
+        check(table.stateOf(id) == OrderState.CONFIRMED, "new order is confirmed");
+        check(table.count(OrderState.CONFIRMED) == 1 && table.inFlight() == 1, "one order in flight");
+        check(changes.equals(List.of(id + ":FREE->CONFIRMED")), "listener told of registration: " + changes);
+    }
+
+    static void transitionNeedsExpectedState() {
+        OrderStateTable table = new OrderStateTable(8);
+        int id = table.register();
+        check(!table.transition(id, OrderState.ACCEPTED, OrderState.COOKED), "wrong expected state is refused");
+        check(table.transition(id, OrderState.CONFIRMED, OrderState.ACCEPTED), "expected state moves on");
+        check(!table.transition(id + 8, OrderState.ACCEPTED, OrderState.COOKED), "another id in the same slot is refused");
+        check(table.stateOf(id + 8) == OrderState.FREE, "another id in the same slot reads as free");
+        check(table.count(OrderState.CONFIRMED) == 0 && table.count(OrderState.ACCEPTED) == 1, "counts follow the move");
+    }
+
+    static void terminalSlotsAreReused() {
+        OrderStateTable table = new OrderStateTable(4);
+        int[] ids = new int[4];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.register();
+        }
+        walk(table, ids[0], OrderState.ACCEPTED, OrderState.COOKED, OrderState.PACKED, OrderState.HANDED_OVER);
+        check(new Status(table, ids[1]).fail(), "live order can be failed");
+        check(table.inFlight() == 2, "finished and cancelled orders are not in flight: " + table.inFlight());
+        int reused = table.register();
+        int again = table.register();
+        check((reused & 3) == (ids[0] & 3) || (reused & 3) == (ids[1] & 3), "registration takes a finished slot");
+        check((again & 3) == (ids[0] & 3) || (again & 3) == (ids[1] & 3), "registration takes a cancelled slot");
+        check(table.stateOf(ids[0]) == OrderState.FREE && table.stateOf(ids[1]) == OrderState.FREE, "old ids lose their slot");
+        check(table.count(OrderState.HANDED_OVER) == 0 && table.count(OrderState.CANCELLED) == 0, "reclaimed states are uncounted");
+        check(table.count(OrderState.CONFIRMED) == 4 && table.inFlight() == 4, "four live orders");
+    }
+
+    static void failingCancelsFromAnyLiveState() {
+        OrderStateTable table = new OrderStateTable(8);
+        int confirmed = table.register();
+        int cooked = table.register();
+        walk(table, cooked, OrderState.ACCEPTED, OrderState.COOKED);
+        int done = table.register();
+        walk(table, done, OrderState.ACCEPTED, OrderState.COOKED, OrderState.PACKED, OrderState.HANDED_OVER);
+        check(new Status(table, confirmed).fail() && table.stateOf(confirmed) == OrderState.CANCELLED, "confirmed order cancelled");
+        check(new Status(table, cooked).fail() && table.stateOf(cooked) == OrderState.CANCELLED, "cooked order cancelled");
+        check(!new Status(table, done).fail() && table.stateOf(done) == OrderState.HANDED_OVER, "handed over order stays done");
+        check(!new Status(table, confirmed).fail(), "cancelling twice does nothing");
+        check(table.inFlight() == 0 && table.count(OrderState.CANCELLED) == 2, "nothing left in flight");
+    }
+
+    static void fullTableRefusesRegistration() {
+        OrderStateTable table = new OrderStateTable(2);
+        table.register();
+        table.register();
+        try {
+            table.register();
+            throw new AssertionError("full table registered a third order");
+        } catch (IllegalStateException expected) {
+            // Both slots are live
+        }
+    }
+
+    static void racingTransitionsHaveOneWinner() throws InterruptedException {
+        OrderStateTable table = new OrderStateTable(1 << 10);
+        int orders = 500;
+        int[] ids = new int[orders];
+        for (int i = 0; i < orders; i++) {
+            ids[i] = table.register();
+        }
+        int threads = 4;
+        AtomicInteger wins = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> racers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread racer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int id : ids) {
+                    if (table.transition(id, OrderState.CONFIRMED, OrderState.ACCEPTED)) {
+                        wins.incrementAndGet();
+                    }
+                }
+            });
+            racer.start();
+            racers.add(racer);
+        }
+        start.countDown();
+        for (Thread racer : racers) {
+            racer.join();
+        }
+        check(wins.get() == orders, "each order accepted exactly once: " + wins.get());
+        check(table.count(OrderState.CONFIRMED) == 0 && table.count(OrderState.ACCEPTED) == orders, "counts match the winners");
+    }
+
+    private static void walk(OrderStateTable table, int id, OrderState... states) {
+        OrderState from = table.stateOf(id);
+        for (OrderState to : states) {
+            check(table.transition(id, from, to), id + " moves " + from + " to " + to);
+            from = to;
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}